@@ -0,0 +1,237 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Ballots of a ranked-choice poll, kept in primitive arrays instead of an
+// object per ballot. Each ballot takes a fixed stride of ranks bytes: its
+// choices in order of preference as option index + 1, padded with zeros. On
+// weighted polls a parallel int array holds each ballot's weight; otherwise
+// every ballot weighs 1 and no weights are stored.
+//
+// Storage grows in chunks of CHUNK_BALLOTS ballots, so appending never copies
+// earlier ballots and TallyEngine can hand a whole chunk to one task. Appends
+// are serialized; readers see the first size() ballots without locking.
+class BallotStore {
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_BALLOTS = 1 << CHUNK_SHIFT;
+    // A choice is stored in one unsigned byte
+    static final int MAX_CANDIDATES = 255;
+    
+    private final int candidates;
+    private final int ranks;
+    private final boolean weighted;
+    // Grown under the lock before size is raised, so a reader that has read
+    // size finds every chunk it needs
+    private volatile byte[][] rankChunks = new byte[4][];
+    private volatile int[][] weightChunks;
+    private volatile int size;
+    
+    // ranks is the most choices one ballot may list
+    BallotStore(int candidates, int ranks, boolean weighted) {
+        if (candidates < 2 || candidates > MAX_CANDIDATES) {
+            throw new IllegalArgumentException("Ranked polls take 2 to " + MAX_CANDIDATES + " options");
+        }
+        if (ranks < 1 || ranks > candidates) {
+            throw new IllegalArgumentException("Ranks must be between 1 and the number of options");
+        }
+        this.candidates = candidates;
+        this.ranks = ranks;
+        this.weighted = weighted;
+        if (weighted) {
+            weightChunks = new int[4][];
+        }
+    }
+    
+    // "ranked" for one-person-one-vote ballots or "weighted" for ballots
+    // with a weight each, optionally followed by ":ranks=N" to cap the
+    // choices per ballot (all options by default)
+    static BallotStore fromSpec(String spec, int candidates) {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        int ranks = Math.min(candidates, MAX_CANDIDATES);
+        if (colon >= 0) {
+            for (String param : spec.substring(colon + 1).split(",")) {
+                String[] pair = param.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Bad ballot parameter: " + param);
+                }
+                switch (pair[0].trim()) {
+                    case "ranks": ranks = Integer.parseInt(pair[1].trim()); break;
+                    default: throw new IllegalArgumentException("Unknown ballot parameter: " + pair[0]);
+                }
+            }
+        }
+        switch (kind.trim()) {
+            case "ranked": return new BallotStore(candidates, ranks, false);
+            case "weighted": return new BallotStore(candidates, ranks, true);
+            default: throw new IllegalArgumentException("Unknown ballot type: " + kind);
+        }
+    }
+    
+    // Configuration only; see fromSpec
+    String spec() {
+        String kind = weighted ? "weighted" : "ranked";
+        return ranks == candidates ? kind : kind + ":ranks=" + ranks;
+    }
+    
+    public int getCandidates() {
+        return candidates;
+    }
+    
+    public int getRanks() {
+        return ranks;
+    }
+    
+    public boolean isWeighted() {
+        return weighted;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    // A ranking lists 1 to getRanks() distinct option indexes, most preferred
+    // first. Unweighted ballots must weigh 1, weighted ones at least 1.
+    public boolean isValid(int[] ranking, int weight) {
+        if (ranking == null || ranking.length < 1 || ranking.length > ranks) {
+            return false;
+        }
+        if (weighted ? weight < 1 : weight != 1) {
+            return false;
+        }
+        for (int i = 0; i < ranking.length; i++) {
+            if (ranking[i] < 0 || ranking[i] >= candidates) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (ranking[j] == ranking[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    // Throws IllegalArgumentException unless isValid(ranking, weight)
+    public synchronized void add(int[] ranking, int weight) {
+        if (!isValid(ranking, weight)) {
+            throw new IllegalArgumentException("Invalid ballot");
+        }
+        int n = size;
+        if (n == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Ballot store is full");
+        }
+        int chunk = n >>> CHUNK_SHIFT;
+        int offset = n & (CHUNK_BALLOTS - 1);
+        if (offset == 0) {
+            addChunk(chunk);
+        }
+        byte[] choices = rankChunks[chunk];
+        int base = offset * ranks;
+        for (int i = 0; i < ranking.length; i++) {
+            choices[base + i] = (byte) (ranking[i] + 1);
+        }
+        if (weighted) {
+            weightChunks[chunk][offset] = weight;
+        }
+        size = n + 1;
+    }
+    
+    private void addChunk(int chunk) {
+        byte[][] choices = rankChunks;
+        if (chunk == choices.length) {
+            choices = Arrays.copyOf(choices, chunk * 2);
+        }
+        choices[chunk] = new byte[CHUNK_BALLOTS * ranks];
+        rankChunks = choices;
+        if (weighted) {
+            int[][] weights = weightChunks;
+            if (chunk == weights.length) {
+                weights = Arrays.copyOf(weights, chunk * 2);
+            }
+            weights[chunk] = new int[CHUNK_BALLOTS];
+            weightChunks = weights;
+        }
+    }
+    
+    // The option a ballot ranks at position rank (0 = first), or -1 if it
+    // lists fewer choices
+    public int choice(int ballot, int rank) {
+        checkBallot(ballot);
+        byte b = rankChunks[ballot >>> CHUNK_SHIFT][(ballot & (CHUNK_BALLOTS - 1)) * ranks + rank];
+        return (b & 0xFF) - 1;
+    }
+    
+    public int weight(int ballot) {
+        checkBallot(ballot);
+        return weighted ? weightChunks[ballot >>> CHUNK_SHIFT][ballot & (CHUNK_BALLOTS - 1)] : 1;
+    }
+    
+    private void checkBallot(int ballot) {
+        if (ballot < 0 || ballot >= size) {
+            throw new IndexOutOfBoundsException("No ballot " + ballot);
+        }
+    }
+    
+    // Raw storage for TallyEngine: ballot (chunk << CHUNK_SHIFT) + i starts
+    // at byte i * getRanks() of rankChunk(chunk)
+    byte[] rankChunk(int chunk) {
+        return rankChunks[chunk];
+    }
+    
+    // Null on unweighted stores
+    int[] weightChunk(int chunk) {
+        return weighted ? weightChunks[chunk] : null;
+    }
+    
+    public long memoryBytes() {
+        long chunks = ((long) size + CHUNK_BALLOTS - 1) >>> CHUNK_SHIFT;
+        long perChunk = 16 + (long) CHUNK_BALLOTS * ranks;
+        if (weighted) {
+            perChunk += 16 + 4L * CHUNK_BALLOTS;
+        }
+        return 64 + chunks * perChunk;
+    }
+    
+    // Writes the ballots; the spec is written separately
+    public void writeState(DataOutput out) throws IOException {
+        int n = size;
+        out.writeInt(n);
+        for (int start = 0; start < n; start += CHUNK_BALLOTS) {
+            int chunk = start >>> CHUNK_SHIFT;
+            int count = Math.min(CHUNK_BALLOTS, n - start);
+            out.write(rankChunks[chunk], 0, count * ranks);
+            if (weighted) {
+                int[] weights = weightChunks[chunk];
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(weights[i]);
+                }
+            }
+        }
+    }
+    
+    // Only for an empty store of the same spec
+    public synchronized void readState(DataInput in) throws IOException {
+        if (size != 0) {
+            throw new IllegalStateException("Ballots can only be read into an empty store");
+        }
+        int n = in.readInt();
+        if (n < 0) {
+            throw new IOException("Corrupt ballot store");
+        }
+        for (int start = 0; start < n; start += CHUNK_BALLOTS) {
+            int chunk = start >>> CHUNK_SHIFT;
+            int count = Math.min(CHUNK_BALLOTS, n - start);
+            addChunk(chunk);
+            in.readFully(rankChunks[chunk], 0, count * ranks);
+            if (weighted) {
+                int[] weights = weightChunks[chunk];
+                for (int i = 0; i < count; i++) {
+                    weights[i] = in.readInt();
+                }
+            }
+        }
+        size = n;
+    }
+}
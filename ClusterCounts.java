@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+// The part of a poll's G-Counter reported by other cluster nodes. Each node
+// only ever raises its own counts, so a merge keeps the highest value seen
+// per node and option; applying the same or an older report again changes
+// nothing, in any order. Immutable: Poll swaps in the merged copy.
+final class ClusterCounts {
+    static final ClusterCounts EMPTY = new ClusterCounts(new int[0], new long[0][], new long[0]);
+    
+    private final int[] nodes;
+    private final long[][] counts;
+    private final long[] totals;
+    
+    private ClusterCounts(int[] nodes, long[][] counts, long[] totals) {
+        this.nodes = nodes;
+        this.counts = counts;
+        this.totals = totals;
+    }
+    
+    // Returns this instance if the report raises nothing. A report may cover
+    // options this node has not heard of yet; they are kept for when it does.
+    ClusterCounts merge(int node, long[] report, int options) {
+        int slot = Arrays.binarySearch(nodes, node);
+        long[] previous = slot >= 0 ? counts[slot] : new long[0];
+        int width = Math.max(Math.max(options, report.length), previous.length);
+        if (previous.length < width) {
+            previous = Arrays.copyOf(previous, width);
+        }
+        long[] merged = null;
+        for (int i = 0; i < report.length; i++) {
+            if (report[i] > previous[i]) {
+                if (merged == null) {
+                    merged = Arrays.copyOf(previous, width);
+                }
+                merged[i] = report[i];
+            }
+        }
+        if (merged == null) {
+            return this;
+        }
+        int[] newNodes = nodes;
+        long[][] newCounts;
+        if (slot >= 0) {
+            newCounts = counts.clone();
+        } else {
+            slot = -slot - 1;
+            newNodes = new int[nodes.length + 1];
+            System.arraycopy(nodes, 0, newNodes, 0, slot);
+            System.arraycopy(nodes, slot, newNodes, slot + 1, nodes.length - slot);
+            newNodes[slot] = node;
+            newCounts = new long[counts.length + 1][];
+            System.arraycopy(counts, 0, newCounts, 0, slot);
+            System.arraycopy(counts, slot, newCounts, slot + 1, counts.length - slot);
+        }
+        newCounts[slot] = merged;
+        long[] newTotals = Arrays.copyOf(totals, Math.max(width, totals.length));
+        for (int i = 0; i < width; i++) {
+            newTotals[i] += merged[i] - previous[i];
+        }
+        return new ClusterCounts(newNodes, newCounts, newTotals);
+    }
+    
+    // Sum over the other nodes for one option
+    long total(int optionIndex) {
+        return optionIndex < totals.length ? totals[optionIndex] : 0;
+    }
+    
+    int nodeCount() {
+        return nodes.length;
+    }
+    
+    long heapBytes() {
+        return 48 + 4L * nodes.length + (24 + 8L * totals.length) * (nodes.length + 1);
+    }
+}
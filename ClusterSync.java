@@ -0,0 +1,536 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Lets several OnlinePollingSystem processes share polls and converge on the
+// same totals. Each node appends to its own file in a shared directory and
+// tails everyone else's. Records are a type byte, a body length and the body:
+//
+//   EPOCH   a random id, always the first record of a file
+//   CREATE  id, question, options, voter filter spec, ballot spec,
+//           write-in spec  (polls created here)
+//   COUNTS  id, this node's cumulative count per option
+//   OPTION  id, option index, text  (write-ins promoted on polls created here)
+//
+// Counts are cumulative, so a report may be read any number of times and in
+// any order: Poll.mergeRemote keeps the highest count per node (a G-Counter).
+// Every SYNC_INTERVAL_MS the node publishes the polls voted on since the
+// last round and merges what the others wrote, so any node's totals trail
+// the cluster by about two intervals.
+//
+// A node's file grows by a COUNTS record for every poll voted on in a round.
+// Once it passes COMPACT_BYTES and has doubled since it was last compacted,
+// the node rewrites it keeping only the last COUNTS of each poll, under a
+// new EPOCH; readers that see the epoch change read the new file from the
+// start, which is safe as every record may be applied again.
+//
+// Remote counts are not journaled; on restart they are rebuilt by reading
+// the other nodes' files from the start. One-vote-per-voter polls only stop
+// repeat voters on each node, not across the cluster. Ranked ballots stay on
+// the node that took them: other nodes see their first preferences, but an
+// instant-runoff count covers local ballots only. Write-in sketches are kept
+// per node too; a promoted write-in starts from each node's own estimate.
+class ClusterSync implements PollListener, Closeable {
+    static final long SYNC_INTERVAL_MS = 250;
+    private static final byte CREATE = 1;
+    private static final byte COUNTS = 2;
+    private static final byte OPTION = 3;
+    private static final byte EPOCH = 4;
+    private static final int RECORD_HEADER = 5;
+    private static final int READ_CHUNK = 16 << 20;
+    static final long COMPACT_BYTES = 64 << 20;
+    
+    // Visits one record of a node file, found at offset
+    private interface RecordVisitor {
+        void visit(byte type, ByteBuffer body, long offset) throws IOException;
+    }
+    
+    private final PollRegistry registry;
+    private final int nodeId;
+    private final Path dir;
+    private final Path ownFile;
+    // Replaced by compact(); only touched by the sync thread, and by close()
+    // once that has stopped
+    private FileChannel out;
+    private long compactAt;
+    private final ScheduledExecutorService sync;
+    private final ConcurrentLinkedQueue<Poll> created = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Map.Entry<Poll, Integer>> addedOptions = new ConcurrentLinkedQueue<>();
+    private final Set<Poll> dirty = ConcurrentHashMap.newKeySet();
+    // The rest is only touched by the sync thread
+    private final HashMap<Long, long[]> published = new HashMap<>();
+    private final HashMap<Path, Long> offsets = new HashMap<>();
+    private final HashMap<Path, Long> epochs = new HashMap<>();
+    // Counts read before the poll's CREATE, by poll id and then node
+    private final HashMap<Long, Map<Integer, long[]>> early = new HashMap<>();
+    
+    private ClusterSync(PollRegistry registry, Path dir) throws IOException {
+        this.registry = registry;
+        this.nodeId = registry.getNodeId();
+        this.dir = dir;
+        this.ownFile = nodeFile(dir, nodeId);
+        // Option count published so far, by poll id
+        Map<Long, Integer> announced = new HashMap<>();
+        long valid = readOwnFile(announced);
+        this.out = FileChannel.open(ownFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a record torn by a crash so new ones start on a boundary
+        out.truncate(valid);
+        out.position(valid);
+        if (valid == 0) {
+            writeEpoch(out);
+        }
+        this.compactAt = Math.max(COMPACT_BYTES, 2 * out.size());
+        this.sync = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        registry.addListener(this);
+        sync.execute(() -> reconcile(announced));
+        sync.scheduleWithFixedDelay(this::roundQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    // Joins the cluster sharing dir, as the registry's node id. Call after
+    // the journal has been replayed, so everything local can be published.
+    public static ClusterSync start(PollRegistry registry, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new ClusterSync(registry, dir);
+    }
+    
+    @Override
+    public void pollChanged(Poll poll) {
+    }
+    
+    // Fires on the first vote here since the poll's counts were last read
+    // for publishing
+    @Override
+    public void pollCounted(Poll poll) {
+        dirty.add(poll);
+    }
+    
+    @Override
+    public void pollAdded(Poll poll) {
+        if (PollRegistry.nodeOf(poll.getId()) == nodeId) {
+            created.add(poll);
+        }
+    }
+    
+    // Options added to other nodes' polls came from their owners already.
+    // Either way the new option may be seeded from this node's write-ins.
+    @Override
+    public void optionAdded(Poll poll, int option) {
+        if (PollRegistry.nodeOf(poll.getId()) == nodeId) {
+            addedOptions.add(new AbstractMap.SimpleImmutableEntry<>(poll, option));
+        }
+        dirty.add(poll);
+    }
+    
+    // Publishes a last round and stops syncing
+    @Override
+    public void close() throws IOException {
+        registry.removeListener(this);
+        sync.shutdown();
+        try {
+            sync.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publish();
+        out.close();
+    }
+    
+    private void roundQuietly() {
+        try {
+            publish();
+            if (out.size() >= compactAt) {
+                compact();
+            }
+            pull();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Cluster sync failed: " + e.getMessage());
+        }
+    }
+    
+    private void publish() throws IOException {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(batch);
+        Poll poll;
+        while ((poll = created.poll()) != null) {
+            writeCreate(records, poll);
+        }
+        // After the creates, so a poll is always announced before its options
+        Map.Entry<Poll, Integer> added;
+        while ((added = addedOptions.poll()) != null) {
+            Poll target = added.getKey();
+            int option = added.getValue();
+            writeOption(records, target.getId(), option, target.getOptions().get(option));
+        }
+        List<Poll> written = new ArrayList<>();
+        for (Poll active : dirty) {
+            // Remove and clear the poll's flag before reading its counts, so
+            // a vote landing meanwhile fires pollCounted and re-adds it
+            dirty.remove(active);
+            active.takeUnpublished();
+            long[] counts = localCounts(active);
+            if (!Arrays.equals(counts, published.get(active.getId()))) {
+                writeCounts(records, active.getId(), counts);
+                written.add(active);
+            }
+        }
+        if (batch.size() > 0) {
+            try {
+                out.write(ByteBuffer.wrap(batch.toByteArray()));
+            } catch (IOException e) {
+                // Try these counts again next round
+                for (Poll failed : written) {
+                    published.remove(failed.getId());
+                    dirty.add(failed);
+                }
+                throw e;
+            }
+        }
+    }
+    
+    // Publishes whatever the last run did not get to: polls created here and
+    // votes counted after its final round. Stored polls are read in place.
+    private void reconcile(Map<Long, Integer> announced) {
+        try {
+            CompactPollStore store = registry.getStore();
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(batch);
+            int size = registry.size();
+            for (int i = 0; i < size; i++) {
+                Poll poll = registry.peekAt(i);
+                long id = poll != null ? poll.getId() : store.idAt(i);
+                if (PollRegistry.nodeOf(id) == nodeId) {
+                    Integer known = announced.get(id);
+                    if (known == null) {
+                        writeCreate(records, registry.getAt(i));
+                    } else {
+                        // Options promoted after the last publish
+                        List<String> texts = poll != null ? poll.getOptions() : store.texts(i);
+                        List<String> options = poll != null ? texts : texts.subList(1, texts.size());
+                        for (int option = known; option < options.size(); option++) {
+                            writeOption(records, id, option, options.get(option));
+                        }
+                    }
+                }
+                long[] counts = poll != null ? localCounts(poll) : store.counts(i);
+                if (!isZero(counts) && !Arrays.equals(counts, published.get(id))) {
+                    writeCounts(records, id, counts);
+                }
+                if (batch.size() > READ_CHUNK) {
+                    out.write(ByteBuffer.wrap(batch.toByteArray()));
+                    batch.reset();
+                }
+            }
+            out.write(ByteBuffer.wrap(batch.toByteArray()));
+            // From here on only polls voted on in this run are tracked
+            published.clear();
+        } catch (IOException e) {
+            System.err.println("Cluster sync could not publish local polls: " + e.getMessage());
+        }
+    }
+    
+    // Merges everything the other nodes appended since the last round
+    private void pull() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> nodes = Files.newDirectoryStream(dir, "node-*.log")) {
+            for (Path file : nodes) {
+                if (!file.equals(ownFile)) {
+                    files.add(file);
+                }
+            }
+        }
+        for (Path file : files) {
+            int node = Integer.parseInt(file.getFileName().toString().replaceAll("\\D", ""));
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                long epoch = readEpoch(in);
+                if (epoch == 0) {
+                    // Still being created
+                    continue;
+                }
+                Long known = epochs.get(file);
+                // A compacted file is read again from the start
+                long offset = known != null && known == epoch ? offsets.getOrDefault(file, 0L) : 0;
+                offsets.put(file, scan(in, offset, (type, body, at) -> apply(type, body, node)));
+                epochs.put(file, epoch);
+            }
+        }
+    }
+    
+    private void apply(byte type, ByteBuffer body, int node) {
+        if (type == CREATE) {
+            applyCreate(body);
+        } else if (type == OPTION) {
+            long id = body.getLong();
+            int option = body.getInt();
+            registry.addRemoteOption(id, option, getString(body));
+        } else if (type == COUNTS) {
+            long id = body.getLong();
+            long[] counts = new long[body.getInt()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = body.getLong();
+            }
+            applyCounts(id, node, counts);
+        }
+    }
+    
+    // Visits the whole records from offset on and returns the offset after
+    // the last. Reads READ_CHUNK bytes at a time, or one record at a time
+    // where a record is larger.
+    private static long scan(FileChannel in, long offset, RecordVisitor visitor) throws IOException {
+        long size = in.size();
+        while (offset < size) {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(READ_CHUNK, size - offset));
+            in.read(buf, offset);
+            buf.flip();
+            if (buf.limit() >= RECORD_HEADER) {
+                long first = RECORD_HEADER + (long) buf.getInt(1);
+                if (first > buf.limit() && first <= size - offset) {
+                    buf = ByteBuffer.allocate((int) first);
+                    in.read(buf, offset);
+                    buf.flip();
+                }
+            }
+            int pos = 0;
+            while (buf.limit() - pos >= RECORD_HEADER) {
+                int length = buf.getInt(pos + 1);
+                if (length < 0 || buf.limit() - pos - RECORD_HEADER < length) {
+                    break;
+                }
+                visitor.visit(buf.get(pos), buf.slice(pos + RECORD_HEADER, length), offset + pos);
+                pos += RECORD_HEADER + length;
+            }
+            if (pos == 0) {
+                // A record still being written, or torn by a crash
+                break;
+            }
+            offset += pos;
+        }
+        return offset;
+    }
+    
+    // The file's epoch, or 0 if its first record is not complete yet
+    private static long readEpoch(FileChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER + 8);
+        if (in.read(header, 0) < header.capacity()) {
+            return 0;
+        }
+        if (header.get(0) != EPOCH || header.getInt(1) != 8) {
+            throw new IOException("Not a cluster node file");
+        }
+        return header.getLong(RECORD_HEADER);
+    }
+    
+    private static void writeEpoch(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER + 8);
+        long epoch;
+        do {
+            epoch = ThreadLocalRandom.current().nextLong();
+        } while (epoch == 0);
+        header.put(EPOCH).putInt(8).putLong(epoch).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+    
+    // Rewrites this node's file with every CREATE and OPTION record and the
+    // last COUNTS of each poll, all in their original order, under a new epoch
+    private void compact() throws IOException {
+        Path tmp = ownFile.resolveSibling(ownFile.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(ownFile, StandardOpenOption.READ);
+                FileChannel copy = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            HashMap<Long, Long> last = new HashMap<>();
+            long end = scan(in, 0, (type, body, at) -> {
+                if (type == COUNTS) {
+                    last.put(body.getLong(0), at);
+                }
+            });
+            writeEpoch(copy);
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            DataOutputStream records = new DataOutputStream(batch);
+            scan(in, 0, (type, body, at) -> {
+                if (type == EPOCH || type == COUNTS && last.get(body.getLong(0)) != at) {
+                    return;
+                }
+                records.writeByte(type);
+                records.writeInt(body.remaining());
+                byte[] bytes = new byte[body.remaining()];
+                body.get(bytes);
+                records.write(bytes);
+                if (batch.size() > READ_CHUNK) {
+                    copy.write(ByteBuffer.wrap(batch.toByteArray()));
+                    batch.reset();
+                }
+            });
+            copy.write(ByteBuffer.wrap(batch.toByteArray()));
+            copy.force(true);
+            if (end != in.size()) {
+                throw new IOException("Cluster node file changed while compacting");
+            }
+        }
+        Files.move(tmp, ownFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out.close();
+        out = FileChannel.open(ownFile, StandardOpenOption.WRITE);
+        out.position(out.size());
+        compactAt = Math.max(COMPACT_BYTES, 2 * out.size());
+    }
+    
+    private void applyCreate(ByteBuffer body) {
+        long id = body.getLong();
+        String question = getString(body);
+        int optionCount = body.getInt();
+        ArrayList<String> options = new ArrayList<>(optionCount);
+        for (int i = 0; i < optionCount; i++) {
+            options.add(getString(body));
+        }
+        String filterSpec = getString(body);
+        String ballotSpec = getString(body);
+        String writeInSpec = getString(body);
+        if (registry.get(id) != null) {
+            return;
+        }
+        VoterFilter filter = filterSpec.isEmpty() ? null : VoterFilter.fromSpec(filterSpec);
+        BallotStore ballots = ballotSpec.isEmpty() ? null : BallotStore.fromSpec(ballotSpec, optionCount);
+        WriteInSketch writeIns = writeInSpec.isEmpty() ? null : WriteInSketch.fromSpec(writeInSpec);
+        try {
+            registry.register(id, new Poll(question, options, filter, ballots, writeIns));
+        } catch (IllegalArgumentException e) {
+            // Registered by another thread since the check
+        }
+        Map<Integer, long[]> waiting = early.remove(id);
+        if (waiting != null) {
+            for (Map.Entry<Integer, long[]> entry : waiting.entrySet()) {
+                applyCounts(id, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    private void applyCounts(long id, int node, long[] counts) {
+        Poll poll = registry.get(id);
+        if (poll != null) {
+            poll.mergeRemote(node, counts);
+            return;
+        }
+        Map<Integer, long[]> waiting = early.computeIfAbsent(id, k -> new HashMap<>());
+        long[] previous = waiting.get(node);
+        if (previous == null || previous.length != counts.length) {
+            waiting.put(node, counts);
+        } else {
+            for (int i = 0; i < counts.length; i++) {
+                previous[i] = Math.max(previous[i], counts[i]);
+            }
+        }
+    }
+    
+    // Learns what an earlier run published, and returns the length of the
+    // file up to its last complete record
+    private long readOwnFile(Map<Long, Integer> announced) throws IOException {
+        if (!Files.exists(ownFile)) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(ownFile, StandardOpenOption.READ)) {
+            // An empty file, or one torn before its epoch was written, starts over
+            if (readEpoch(in) == 0) {
+                return 0;
+            }
+            return scan(in, 0, (type, body, at) -> {
+                if (type == EPOCH) {
+                    return;
+                }
+                long id = body.getLong();
+                if (type == CREATE) {
+                    getString(body);
+                    announced.put(id, body.getInt());
+                } else if (type == OPTION) {
+                    announced.merge(id, body.getInt() + 1, Math::max);
+                } else {
+                    long[] counts = new long[body.getInt()];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = body.getLong();
+                    }
+                    published.put(id, counts);
+                }
+            });
+        }
+    }
+    
+    private void writeCreate(DataOutputStream records, Poll poll) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(body);
+        fields.writeLong(poll.getId());
+        putString(fields, poll.getQuestion());
+        fields.writeInt(poll.getOptions().size());
+        for (String option : poll.getOptions()) {
+            putString(fields, option);
+        }
+        VoterFilter filter = poll.getVoterFilter();
+        putString(fields, filter == null ? "" : filter.spec());
+        putString(fields, poll.isRanked() ? poll.getBallots().spec() : "");
+        putString(fields, poll.acceptsWriteIns() ? poll.getWriteIns().spec() : "");
+        records.writeByte(CREATE);
+        records.writeInt(body.size());
+        body.writeTo(records);
+    }
+    
+    private void writeOption(DataOutputStream records, long id, int option, String text) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(body);
+        fields.writeLong(id);
+        fields.writeInt(option);
+        putString(fields, text);
+        records.writeByte(OPTION);
+        records.writeInt(body.size());
+        body.writeTo(records);
+    }
+    
+    private void writeCounts(DataOutputStream records, long id, long[] counts) throws IOException {
+        records.writeByte(COUNTS);
+        records.writeInt(8 + 4 + 8 * counts.length);
+        records.writeLong(id);
+        records.writeInt(counts.length);
+        for (long count : counts) {
+            records.writeLong(count);
+        }
+        published.put(id, counts);
+    }
+    
+    private static long[] localCounts(Poll poll) {
+        long[] counts = new long[poll.getOptions().size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = poll.getLocalVotes(i);
+        }
+        return counts;
+    }
+    
+    private static boolean isZero(long[] counts) {
+        for (long count : counts) {
+            if (count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static Path nodeFile(Path dir, int node) {
+        return dir.resolve("node-" + node + ".log");
+    }
+    
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,562 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Read-only, memory-mapped file of polls, written by VoteJournal compaction.
+// Opening one reads only the header, so startup does not grow with the
+// number of polls; PollRegistry turns a record into a Poll the first time
+// that poll is read.
+//
+// Every question, option and filter spec is stored once in a string
+// dictionary and referenced by number, so "Yes"/"No" cost a few bytes per
+// poll instead of a String each. Numbers are varints. Offset tables give
+// random access to each record and string, and an id index sorted by poll id
+// finds a poll's position by binary search.
+//
+// Layout: a HEADER_BYTES header, then the records, the strings, the string
+// offsets (long each), the record offsets (long each), the id index (id long,
+// position int) and the ids of strings used more than once (count, int each).
+// A record is: id (long), question, option count, then per option the string
+// and vote count, then filter spec + 1 (0 for none) and, with a filter, the
+// length and bytes of its state. The ballots of ranked polls follow in the
+// same way, then the write-in sketch. The file is mapped in 1 GB segments,
+// each running a few bytes into the next so that a number never straddles
+// two; a state section that does is copied out when read.
+class CompactPollStore {
+    static final int MAGIC = 0x50434D50; // "PCMP"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 64;
+    private static final int ID_ENTRY_BYTES = 12;
+    static final int SEGMENT_SHIFT = 30;
+    // The longest number read in one piece, a long
+    private static final int SEGMENT_OVERLAP = 8;
+    
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long generation;
+    private final int pollCount;
+    private final long stringOffsets;
+    private final long recordOffsets;
+    private final long idIndex;
+    // Strings shared by several polls are decoded once, so their Polls share them
+    private final int[] sharedIds;
+    private final String[] sharedStrings;
+    
+    private CompactPollStore(ByteBuffer[] segments, int segmentShift) throws IOException {
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        if (getInt(0) != MAGIC || getInt(4) != VERSION) {
+            throw new IOException("Unrecognized poll store format");
+        }
+        generation = getLong(8);
+        pollCount = getInt(16);
+        stringOffsets = getLong(24);
+        recordOffsets = getLong(32);
+        idIndex = getLong(40);
+        long shared = getLong(48);
+        int sharedCount = getInt(shared);
+        sharedIds = new int[sharedCount];
+        sharedStrings = new String[sharedCount];
+        for (int i = 0; i < sharedCount; i++) {
+            sharedIds[i] = getInt(shared + 4 + 4L * i);
+            sharedStrings[i] = decode(sharedIds[i]);
+        }
+    }
+    
+    public static CompactPollStore open(Path path) throws IOException {
+        return open(path, SEGMENT_SHIFT);
+    }
+    
+    // Segments of 1 << segmentShift bytes; small ones put many boundaries
+    // in a small file
+    static CompactPollStore open(Path path, int segmentShift) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = file.size();
+            long segmentBytes = 1L << segmentShift;
+            ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1, (size + segmentBytes - 1) >>> segmentShift)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << segmentShift;
+                // The mappings stay valid after the channel is closed
+                MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(size - start, segmentBytes + SEGMENT_OVERLAP));
+                segments[i] = mapped;
+            }
+            return new CompactPollStore(segments, segmentShift);
+        }
+    }
+    
+    // True if the file starts like a compact poll store
+    static boolean isStore(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+    
+    // The last journal generation folded into this store
+    public long getGeneration() {
+        return generation;
+    }
+    
+    public int size() {
+        return pollCount;
+    }
+    
+    public long idAt(int position) {
+        return getLong(recordOffset(position));
+    }
+    
+    // Position of the poll with this id, or -1
+    public int positionOf(long id) {
+        int low = 0;
+        int high = pollCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = getLong(idIndex + (long) mid * ID_ENTRY_BYTES);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return getInt(idIndex + (long) mid * ID_ENTRY_BYTES + 8);
+            }
+        }
+        return -1;
+    }
+    
+    // Builds the Poll for a record, with its counts and voters; its id and
+    // listener are left for the registry to set
+    public Poll load(int position) {
+        return load(position, null);
+    }
+    
+    // With counters of the kind the registry it will join uses
+    Poll load(int position, PollRegistry registry) {
+        Cursor c = new Cursor(recordOffset(position) + 8);
+        String question = string(c.readInt());
+        int optionCount = c.readInt();
+        ArrayList<String> options = new ArrayList<>(optionCount);
+        long[] counts = new long[optionCount];
+        for (int i = 0; i < optionCount; i++) {
+            options.add(string(c.readInt()));
+            counts[i] = c.readLong();
+        }
+        Section filterSection = c.readSection();
+        Section ballotSection = c.readSection();
+        Section writeInSection = c.readSection();
+        VoterFilter filter = null;
+        BallotStore ballots = null;
+        WriteInSketch writeIns = null;
+        try {
+            if (filterSection != null) {
+                filter = VoterFilter.fromSpec(filterSection.spec);
+                filter.readState(filterSection.input());
+            }
+            if (ballotSection != null) {
+                ballots = BallotStore.fromSpec(ballotSection.spec, optionCount);
+                ballots.readState(ballotSection.input());
+            }
+            if (writeInSection != null) {
+                writeIns = WriteInSketch.fromSpec(writeInSection.spec);
+                writeIns.readState(writeInSection.input());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt poll state in poll store", e);
+        }
+        VoteCounts votes = registry == null ? VoteCounts.create(optionCount) : registry.newCounts(optionCount);
+        Poll poll = new Poll(question, options, filter, ballots, writeIns, votes);
+        for (int i = 0; i < optionCount; i++) {
+            if (counts[i] != 0) {
+                poll.addVotes(i, counts[i]);
+            }
+        }
+        return poll;
+    }
+    
+    // Largest stored id below limit, or -1 if there is none
+    public long floorId(long limit) {
+        int low = 0;
+        int high = pollCount - 1;
+        long floor = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = getLong(idIndex + (long) mid * ID_ENTRY_BYTES);
+            if (midId < limit) {
+                floor = midId;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return floor;
+    }
+    
+    // Stored vote counts, without building a Poll
+    public long[] counts(int position) {
+        Cursor c = new Cursor(recordOffset(position) + 8);
+        c.readInt();
+        long[] counts = new long[c.readInt()];
+        for (int i = 0; i < counts.length; i++) {
+            c.readInt();
+            counts[i] = c.readLong();
+        }
+        return counts;
+    }
+    
+    // Question followed by the options, without building a Poll; for indexing
+    public List<String> texts(int position) {
+        Cursor c = new Cursor(recordOffset(position) + 8);
+        List<String> texts = new ArrayList<>();
+        texts.add(string(c.readInt()));
+        int optionCount = c.readInt();
+        for (int i = 0; i < optionCount; i++) {
+            texts.add(string(c.readInt()));
+            c.readLong();
+        }
+        return texts;
+    }
+    
+    // Copies a record into a new store without building a Poll
+    void copyTo(int position, Writer out) throws IOException {
+        Cursor c = new Cursor(recordOffset(position));
+        long id = getLong(c.pos);
+        c.pos += 8;
+        String question = string(c.readInt());
+        int optionCount = c.readInt();
+        List<String> options = new ArrayList<>(optionCount);
+        long[] counts = new long[optionCount];
+        for (int i = 0; i < optionCount; i++) {
+            options.add(string(c.readInt()));
+            counts[i] = c.readLong();
+        }
+        Section filter = c.readSection();
+        Section ballots = c.readSection();
+        Section writeIns = c.readSection();
+        out.add(id, question, options, counts, filter, ballots, writeIns);
+    }
+    
+    private long recordOffset(int position) {
+        if (position < 0 || position >= pollCount) {
+            throw new IndexOutOfBoundsException("No stored poll at " + position);
+        }
+        return getLong(recordOffsets + 8L * position);
+    }
+    
+    private String string(int id) {
+        int shared = Arrays.binarySearch(sharedIds, id);
+        return shared >= 0 ? sharedStrings[shared] : decode(id);
+    }
+    
+    private String decode(int id) {
+        Cursor c = new Cursor(getLong(stringOffsets + 8L * id));
+        byte[] bytes = new byte[c.readInt()];
+        get(c.pos, bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    // A number is never split between segments, thanks to the overlap
+    private byte get(long pos) {
+        return segments[(int) (pos >>> segmentShift)].get((int) (pos & segmentMask));
+    }
+    
+    private int getInt(long pos) {
+        return segments[(int) (pos >>> segmentShift)].getInt((int) (pos & segmentMask));
+    }
+    
+    private long getLong(long pos) {
+        return segments[(int) (pos >>> segmentShift)].getLong((int) (pos & segmentMask));
+    }
+    
+    private void get(long pos, byte[] bytes, int off, int len) {
+        while (len > 0) {
+            ByteBuffer segment = segments[(int) (pos >>> segmentShift)];
+            int start = (int) (pos & segmentMask);
+            int n = (int) Math.min(len, (segmentMask + 1) - start);
+            segment.get(start, bytes, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+    
+    // A view of the mapping when the bytes lie in one segment, else a copy
+    private ByteBuffer slice(long pos, int length) {
+        int start = (int) (pos & segmentMask);
+        if (start + (long) length <= segmentMask + 1 + SEGMENT_OVERLAP) {
+            return segments[(int) (pos >>> segmentShift)].slice(start, length);
+        }
+        byte[] copy = new byte[length];
+        get(pos, copy, 0, length);
+        return ByteBuffer.wrap(copy);
+    }
+    
+    // Reads varints forward from pos
+    private final class Cursor {
+        long pos;
+        
+        Cursor(long pos) {
+            this.pos = pos;
+        }
+        
+        long readLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+        
+        int readInt() {
+            return (int) readLong();
+        }
+        
+        // A spec + 1 (0 for none), then the length and bytes of the state
+        Section readSection() {
+            int spec = readInt() - 1;
+            if (spec < 0) {
+                return null;
+            }
+            int length = readInt();
+            ByteBuffer state = slice(pos, length);
+            pos += length;
+            return new Section(string(spec), state);
+        }
+    }
+    
+    // Optional per-poll state: a voter filter, ballots or write-ins, as its
+    // spec and the bytes its writeState produced. Read straight from the
+    // mapping, so ballots of a large poll are not copied on the way.
+    static final class Section {
+        final String spec;
+        final ByteBuffer state;
+        
+        Section(String spec, ByteBuffer state) {
+            this.spec = spec;
+            this.state = state;
+        }
+        
+        DataInputStream input() {
+            return new DataInputStream(new BufferInput(state.duplicate()));
+        }
+    }
+    
+    // Lets VoterFilter.readState read straight from the mapping
+    private static final class BufferInput extends InputStream {
+        private final ByteBuffer buf;
+        
+        BufferInput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+        
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(bytes, off, n);
+            return n;
+        }
+    }
+    
+    // Streams polls into a new store file. Records are written as they are
+    // added; the dictionary, offset tables and header follow in finish().
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final CountingOutput counter;
+        private final DataOutputStream out;
+        private final long generation;
+        private final HashMap<String, Integer> stringIds = new HashMap<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        private int[] uses = new int[64];
+        private long[] offsets = new long[64];
+        private long[] ids = new long[64];
+        private int count;
+        private long maxId;
+        
+        Writer(Path path, long generation) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.counter = new CountingOutput(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            this.out = new DataOutputStream(counter);
+            this.generation = generation;
+            out.write(new byte[HEADER_BYTES]);
+        }
+        
+        // Only the poll's local votes; other nodes' counts come back from the cluster
+        void add(Poll poll) throws IOException {
+            long[] counts = new long[poll.getOptions().size()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = poll.getLocalVotes(i);
+            }
+            Section filter = null;
+            if (poll.getVoterFilter() != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                poll.getVoterFilter().writeState(new DataOutputStream(bytes));
+                filter = new Section(poll.getVoterFilter().spec(), ByteBuffer.wrap(bytes.toByteArray()));
+            }
+            Section ballots = null;
+            if (poll.isRanked()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                poll.getBallots().writeState(new DataOutputStream(bytes));
+                ballots = new Section(poll.getBallots().spec(), ByteBuffer.wrap(bytes.toByteArray()));
+            }
+            Section writeIns = null;
+            if (poll.acceptsWriteIns()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                poll.getWriteIns().writeState(new DataOutputStream(bytes));
+                writeIns = new Section(poll.getWriteIns().spec(), ByteBuffer.wrap(bytes.toByteArray()));
+            }
+            add(poll.getId(), poll.getQuestion(), poll.getOptions(), counts, filter, ballots, writeIns);
+        }
+        
+        // Sections may be null
+        void add(long id, String question, List<String> options, long[] counts, Section filter, Section ballots,
+                Section writeIns) throws IOException {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            offsets[count] = counter.written;
+            ids[count] = id;
+            count++;
+            maxId = Math.max(maxId, id);
+            out.writeLong(id);
+            writeVarint(intern(question));
+            writeVarint(options.size());
+            for (int i = 0; i < options.size(); i++) {
+                writeVarint(intern(options.get(i)));
+                writeVarint(counts[i]);
+            }
+            writeSection(filter);
+            writeSection(ballots);
+            writeSection(writeIns);
+        }
+        
+        private void writeSection(Section section) throws IOException {
+            if (section == null) {
+                writeVarint(0);
+            } else {
+                ByteBuffer state = section.state.duplicate();
+                writeVarint(intern(section.spec) + 1);
+                writeVarint(state.remaining());
+                byte[] chunk = new byte[Math.min(state.remaining(), 1 << 16)];
+                while (state.hasRemaining()) {
+                    int n = Math.min(chunk.length, state.remaining());
+                    state.get(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                }
+            }
+        }
+        
+        void finish() throws IOException {
+            long[] stringOffsets = new long[strings.size()];
+            for (int i = 0; i < strings.size(); i++) {
+                stringOffsets[i] = counter.written;
+                byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length);
+                out.write(bytes);
+            }
+            long stringOffsetsPos = counter.written;
+            for (long offset : stringOffsets) {
+                out.writeLong(offset);
+            }
+            long recordOffsetsPos = counter.written;
+            for (int i = 0; i < count; i++) {
+                out.writeLong(offsets[i]);
+            }
+            long idIndexPos = counter.written;
+            Integer[] byId = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                byId[i] = i;
+            }
+            Arrays.sort(byId, Comparator.comparingLong(i -> ids[i]));
+            for (int position : byId) {
+                out.writeLong(ids[position]);
+                out.writeInt(position);
+            }
+            long sharedPos = counter.written;
+            int shared = 0;
+            for (int i = 0; i < strings.size(); i++) {
+                shared += uses[i] > 1 ? 1 : 0;
+            }
+            out.writeInt(shared);
+            for (int i = 0; i < strings.size(); i++) {
+                if (uses[i] > 1) {
+                    out.writeInt(i);
+                }
+            }
+            out.flush();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(count).putInt(strings.size())
+                .putLong(stringOffsetsPos).putLong(recordOffsetsPos).putLong(idIndexPos).putLong(sharedPos)
+                .putLong(maxId).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+        
+        private int intern(String s) {
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(s, id);
+                strings.add(s);
+                if (id == uses.length) {
+                    uses = Arrays.copyOf(uses, id * 2);
+                }
+            }
+            uses[id]++;
+            return id;
+        }
+        
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+    
+    private static final class CountingOutput extends FilterOutputStream {
+        long written;
+        
+        CountingOutput(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+        
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            out.write(bytes, off, len);
+            written += len;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.concurrent.TimeUnit;
+
+// Times every AWT event the Event Dispatch Thread handles. An event that
+// holds the EDT past THRESHOLD_MILLIS is counted in PollMetrics and emitted
+// as a polls.EdtStall JFR event. A watchdog thread grabs the EDT's stack
+// while the stall is still in progress, since afterwards it is gone.
+class EdtStallDetector extends EventQueue {
+    static final long THRESHOLD_MILLIS = 100;
+    private static final int STACK_DEPTH = 12;
+    
+    private final PollMetrics metrics;
+    private volatile Thread edt;
+    // Start of the event being dispatched, 0 while idle
+    private volatile long dispatchStart;
+    // Bumped by every dispatch, so a nested loop (a modal dialog) is noticed
+    private volatile long dispatchSequence;
+    private volatile long stackSequence = -1;
+    private volatile String stallStack;
+    
+    private EdtStallDetector(PollMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public static void install(PollMetrics metrics) {
+        EdtStallDetector detector = new EdtStallDetector(metrics);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(detector);
+        Thread watchdog = new Thread(detector::watch, "edt-stall-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+    
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        edt = Thread.currentThread();
+        long sequence = ++dispatchSequence;
+        PollEvents.EdtStall stall = new PollEvents.EdtStall();
+        stall.begin();
+        long start = System.nanoTime();
+        dispatchStart = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            // Time spent in a nested loop was the user's, not a stall
+            boolean nested = dispatchSequence != sequence;
+            dispatchStart = nested ? System.nanoTime() : 0;
+            if (!nested && elapsed >= TimeUnit.MILLISECONDS.toNanos(THRESHOLD_MILLIS)) {
+                metrics.edtStalled(elapsed);
+                stall.end();
+                if (stall.shouldCommit()) {
+                    stall.event = event.getClass().getName() + " from " + event.getSource().getClass().getName();
+                    stall.stack = stackSequence == sequence ? stallStack : null;
+                    stall.commit();
+                }
+            }
+        }
+    }
+    
+    private void watch() {
+        long interval = THRESHOLD_MILLIS / 2;
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStart;
+            long sequence = dispatchSequence;
+            Thread thread = edt;
+            if (start == 0 || thread == null || stackSequence == sequence) {
+                continue;
+            }
+            if (System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(THRESHOLD_MILLIS)) {
+                StringBuilder stack = new StringBuilder();
+                StackTraceElement[] frames = thread.getStackTrace();
+                for (int i = 0; i < Math.min(STACK_DEPTH, frames.length); i++) {
+                    stack.append(frames[i]).append('\n');
+                }
+                stallStack = stack.toString();
+                stackSequence = sequence;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+// Counts of a poll that has gained options since it was created: the
+// original counters, used as they are, plus one counter per added option.
+// Votes still in flight on the old counters land in the same storage, so
+// growing a poll never loses or copies a vote.
+final class ExtendedVoteCounts implements VoteCounts {
+    private final VoteCounts base;
+    private final VoteCounts[] added;
+    private final int baseSize;
+    
+    private ExtendedVoteCounts(VoteCounts base, VoteCounts[] added) {
+        this.base = base;
+        this.added = added;
+        this.baseSize = base.size();
+    }
+    
+    // counts with one more option at the end, kept where the others are
+    static VoteCounts withOption(VoteCounts counts) {
+        if (counts instanceof ExtendedVoteCounts) {
+            ExtendedVoteCounts extended = (ExtendedVoteCounts) counts;
+            VoteCounts[] added = Arrays.copyOf(extended.added, extended.added.length + 1);
+            added[added.length - 1] = oneLike(extended.base);
+            return new ExtendedVoteCounts(extended.base, added);
+        }
+        return new ExtendedVoteCounts(counts, new VoteCounts[] {oneLike(counts)});
+    }
+    
+    private static VoteCounts oneLike(VoteCounts counts) {
+        return counts instanceof OffHeapVoteCounts
+            ? OffHeapVoteCounts.view(OffHeapVoteCounts.allocate(1), 1) : new StripedVoteCounts(1);
+    }
+    
+    @Override
+    public void increment(int optionIndex) {
+        if (optionIndex < baseSize) {
+            base.increment(optionIndex);
+        } else {
+            added[optionIndex - baseSize].increment(0);
+        }
+    }
+    
+    @Override
+    public void add(int optionIndex, long count) {
+        if (optionIndex < baseSize) {
+            base.add(optionIndex, count);
+        } else {
+            added[optionIndex - baseSize].add(0, count);
+        }
+    }
+    
+    @Override
+    public long get(int optionIndex) {
+        return optionIndex < baseSize ? base.get(optionIndex) : added[optionIndex - baseSize].get(0);
+    }
+    
+    @Override
+    public int size() {
+        return baseSize + added.length;
+    }
+    
+    @Override
+    public long heapBytes() {
+        long bytes = 32 + base.heapBytes() + 16 + 8L * added.length;
+        for (VoteCounts counts : added) {
+            bytes += counts.heapBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load generator. Creates polls, then drives votes through
+// PollRegistry.vote, the call behind every vote the GUI and the HTTP server
+// apply, and reports throughput and latency percentiles.
+//
+// Load is open-loop: every vote has an intended start time drawn from the
+// arrival process, and its latency is measured from that time, not from
+// when a worker got round to it. A system that falls behind shows it as
+// growing latency instead of quietly lowering the offered rate. Polls are
+// picked with Zipfian popularity (a few polls get most of the votes).
+//
+//   java LoadGenerator [--polls N] [--options K | --options MIN-MAX]
+//                      [--rate VOTES_PER_SEC] [--duration SECONDS]
+//                      [--threads N] [--zipf S] [--arrivals poisson|uniform]
+//                      [--seed N] [--data-dir DIR] [--offheap-counts]
+//                      [--record FILE | --replay FILE] [--pipeline]
+//
+// --record saves every generated vote with its offset from the start;
+// --replay recreates the same polls and sends exactly those votes on the
+// same schedule, so two builds can be compared on identical traffic.
+// --pipeline submits votes through a VotePipeline, as the GUI and the HTTP
+// server do, waiting only when its queue is full; latency then runs up to
+// the vote's callback and the elapsed time includes draining the queue.
+class LoadGenerator {
+    private static final int TRACE_MAGIC = 0x504C5452; // "PLTR"
+    private static final long SPIN_NANOS = 50_000;
+    
+    // One vote in a trace: when it was due, on which poll and option
+    static final class Trace {
+        long[] times = new long[1024];
+        int[] polls = new int[1024];
+        int[] options = new int[1024];
+        int size;
+        
+        void add(long time, int poll, int option) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                polls = Arrays.copyOf(polls, size * 2);
+                options = Arrays.copyOf(options, size * 2);
+            }
+            times[size] = time;
+            polls[size] = poll;
+            options[size] = option;
+            size++;
+        }
+    }
+    
+    private final PollRegistry registry;
+    private final long[] pollIds;
+    private final int[] optionCounts;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    // Null to call PollRegistry.vote on the worker threads
+    private VotePipeline pipeline;
+    
+    private LoadGenerator(PollRegistry registry, int[] optionCounts) {
+        this.registry = registry;
+        this.optionCounts = optionCounts;
+        this.pollIds = new long[optionCounts.length];
+        for (int i = 0; i < optionCounts.length; i++) {
+            ArrayList<String> options = new ArrayList<>();
+            for (int j = 0; j < optionCounts[i]; j++) {
+                options.add("Option " + (j + 1));
+            }
+            pollIds[i] = registry.add(new Poll("Load test poll " + (i + 1), options));
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int polls = 1000;
+        int minOptions = 4;
+        int maxOptions = 4;
+        double rate = 100_000;
+        double duration = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double zipf = 1.0;
+        boolean poisson = true;
+        long seed = 42;
+        String dataDir = null;
+        String record = null;
+        String replay = null;
+        boolean usePipeline = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--polls": polls = Integer.parseInt(args[++i]); break;
+                case "--options": {
+                    String[] range = args[++i].split("-", 2);
+                    minOptions = Integer.parseInt(range[0]);
+                    maxOptions = range.length > 1 ? Integer.parseInt(range[1]) : minOptions;
+                    break;
+                }
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--duration": duration = Double.parseDouble(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--zipf": zipf = Double.parseDouble(args[++i]); break;
+                case "--arrivals": poisson = args[++i].equals("poisson"); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--data-dir": dataDir = args[++i]; break;
+                case "--offheap-counts": OffHeapVoteCounts.enable(); break;
+                case "--record": record = args[++i]; break;
+                case "--replay": replay = args[++i]; break;
+                case "--pipeline": usePipeline = true; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (record != null && replay != null) {
+            System.err.println("--record and --replay cannot be combined");
+            System.exit(2);
+        }
+        if (polls < 1 || minOptions < 2 || maxOptions < minOptions || rate <= 0 || threads < 1) {
+            System.err.println("Need at least 1 poll, 2 options, a positive rate and 1 thread");
+            System.exit(2);
+        }
+        
+        Trace trace = null;
+        int[] optionCounts;
+        if (replay != null) {
+            trace = new Trace();
+            optionCounts = readTrace(Paths.get(replay), trace);
+        } else {
+            Random random = new Random(seed);
+            optionCounts = new int[polls];
+            for (int i = 0; i < polls; i++) {
+                optionCounts[i] = minOptions + random.nextInt(maxOptions - minOptions + 1);
+            }
+        }
+        
+        PollRegistry registry = new PollRegistry();
+        VoteJournal journal = null;
+        if (dataDir != null) {
+            journal = VoteJournal.open(Paths.get(dataDir), registry);
+            registry.setJournal(journal);
+        }
+        LoadGenerator generator = new LoadGenerator(registry, optionCounts);
+        if (usePipeline) {
+            generator.pipeline = new VotePipeline(registry, null);
+        }
+        System.out.printf("%d polls, %d threads%s%n", optionCounts.length, threads, usePipeline ? ", vote pipeline" : "");
+        
+        Trace[] recorded = new Trace[threads];
+        long elapsed;
+        if (trace != null) {
+            System.out.printf("Replaying %d votes from %s%n", trace.size, replay);
+            elapsed = generator.replay(trace, threads);
+        } else {
+            System.out.printf("Offering %.0f votes/s for %.1f s, zipf %.2f, %s arrivals%n",
+                rate, duration, zipf, poisson ? "poisson" : "uniform");
+            double[] cdf = zipfCdf(optionCounts.length, zipf);
+            int[] ranking = shuffled(optionCounts.length, seed);
+            for (int t = 0; t < threads; t++) {
+                recorded[t] = record != null ? new Trace() : null;
+            }
+            elapsed = generator.generate(cdf, ranking, rate, (long) (duration * 1e9), threads, poisson, seed, recorded);
+        }
+        generator.report(elapsed);
+        
+        if (record != null) {
+            writeTrace(Paths.get(record), optionCounts, recorded);
+            System.out.println("Trace written to " + record);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        System.exit(0);
+    }
+    
+    // Each worker runs its own arrival process at rate / threads
+    private long generate(double[] cdf, int[] ranking, double rate, long durationNanos, int threads,
+                          boolean poisson, long seed, Trace[] recorded) throws InterruptedException {
+        double meanGap = 1e9 * threads / rate;
+        long start = System.nanoTime() + 10_000_000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(seed + 1 + t);
+            Trace trace = recorded[t];
+            workers[t] = new Thread(() -> {
+                double offset = poisson ? -Math.log(1 - random.nextDouble()) * meanGap : random.nextDouble() * meanGap;
+                while (offset < durationNanos) {
+                    int poll = ranking[zipfRank(cdf, random.nextDouble())];
+                    int option = random.nextInt(optionCounts[poll]);
+                    if (trace != null) {
+                        trace.add((long) offset, poll, option);
+                    }
+                    vote(start + (long) offset, poll, option);
+                    offset += poisson ? -Math.log(1 - random.nextDouble()) * meanGap : meanGap;
+                }
+            }, "load-" + t);
+        }
+        return run(workers, start);
+    }
+    
+    // Worker t sends every threads-th vote of the trace, in time order
+    private long replay(Trace trace, int threads) throws InterruptedException {
+        long start = System.nanoTime() + 10_000_000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers[t] = new Thread(() -> {
+                for (int i = first; i < trace.size; i += threads) {
+                    vote(start + trace.times[i], trace.polls[i], trace.options[i]);
+                }
+            }, "replay-" + t);
+        }
+        return run(workers, start);
+    }
+    
+    private long run(Thread[] workers, long start) throws InterruptedException {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        return System.nanoTime() - start;
+    }
+    
+    // Waits for the vote's intended time unless it is already late
+    private void vote(long intended, int poll, int option) {
+        long wait = intended - System.nanoTime();
+        if (wait > SPIN_NANOS) {
+            LockSupport.parkNanos(wait - SPIN_NANOS);
+        }
+        while (System.nanoTime() < intended) {
+            Thread.onSpinWait();
+        }
+        if (pipeline == null) {
+            VoteResult result = registry.vote(pollIds[poll], option, null);
+            // Acknowledged like the HTTP server does it: once on disk
+            try {
+                registry.awaitDurable();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            voted(intended, result);
+            return;
+        }
+        try {
+            pipeline.put(VotePipeline.Request.vote(pollIds[poll], option, null, result -> voted(intended, result)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void voted(long intended, VoteResult result) {
+        latency.record(System.nanoTime() - intended);
+        if (result == VoteResult.ACCEPTED) {
+            accepted.increment();
+        } else {
+            rejected.increment();
+        }
+    }
+    
+    private void report(long elapsedNanos) {
+        long votes = accepted.sum() + rejected.sum();
+        System.out.printf("Votes:      %d accepted, %d rejected in %.2f s%n",
+            accepted.sum(), rejected.sum(), elapsedNanos / 1e9);
+        System.out.printf("Throughput: %.0f votes/s%n", votes * 1e9 / elapsedNanos);
+        System.out.printf("Latency:    p50 %s  p99 %s  p999 %s  max %s%n",
+            micros(latency.percentile(50)), micros(latency.percentile(99)),
+            micros(latency.percentile(99.9)), micros(latency.max()));
+    }
+    
+    private static String micros(long nanos) {
+        return String.format("%.1f us", nanos / 1000.0);
+    }
+    
+    // Cumulative probabilities of ranks 1..n with weight 1 / rank^s
+    static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+    
+    static int zipfRank(double[] cdf, double u) {
+        int rank = Arrays.binarySearch(cdf, u);
+        return Math.min(cdf.length - 1, rank >= 0 ? rank : -rank - 1);
+    }
+    
+    // Popularity rank to poll, so the hottest polls are spread out
+    private static int[] shuffled(int n, long seed) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+    
+    // Header (magic, poll count, option count per poll, vote count), then
+    // one (offset nanos, poll, option) entry per vote in time order
+    private static void writeTrace(Path path, int[] optionCounts, Trace[] parts) throws IOException {
+        int total = 0;
+        for (Trace part : parts) {
+            total += part.size;
+        }
+        Trace merged = new Trace();
+        int[] next = new int[parts.length];
+        for (int n = 0; n < total; n++) {
+            int pick = -1;
+            for (int t = 0; t < parts.length; t++) {
+                if (next[t] < parts[t].size && (pick < 0 || parts[t].times[next[t]] < parts[pick].times[next[pick]])) {
+                    pick = t;
+                }
+            }
+            int i = next[pick]++;
+            merged.add(parts[pick].times[i], parts[pick].polls[i], parts[pick].options[i]);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(TRACE_MAGIC);
+            out.writeInt(optionCounts.length);
+            for (int count : optionCounts) {
+                out.writeInt(count);
+            }
+            out.writeInt(merged.size);
+            for (int i = 0; i < merged.size; i++) {
+                out.writeLong(merged.times[i]);
+                out.writeInt(merged.polls[i]);
+                out.writeInt(merged.options[i]);
+            }
+        }
+    }
+    
+    // Fills trace and returns the option count of each poll
+    private static int[] readTrace(Path path, Trace trace) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != TRACE_MAGIC) {
+                throw new IOException("Not a vote trace: " + path);
+            }
+            int[] optionCounts = new int[in.readInt()];
+            for (int i = 0; i < optionCounts.length; i++) {
+                optionCounts[i] = in.readInt();
+            }
+            int votes = in.readInt();
+            for (int i = 0; i < votes; i++) {
+                trace.add(in.readLong(), in.readInt(), in.readInt());
+            }
+            return optionCounts;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Counters kept outside the Java heap. All polls share one slab of large
+// direct buffers, each poll taking one 8-byte slot per option, so millions of
+// polls add no counter objects for the GC to trace and heap use stays flat.
+// A poll keeps only the long address allocate() returns, the chunk index in
+// the high half and the byte offset in the low half, and counts through the
+// static methods; votes are atomic adds on the slot through a VarHandle.
+// Instances are views of an address, for code that needs a VoteCounts.
+//
+// A slot is a single word, so heavy contention on one poll costs more than
+// with StripedVoteCounts. Slots are never freed, since polls never are.
+class OffHeapVoteCounts implements VoteCounts {
+    private static final VarHandle SLOT =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int CHUNK_BYTES = 64 << 20;
+    
+    private static volatile boolean enabled;
+    // Replaced, never changed in place, when a chunk is added; read without
+    // locking by every vote
+    private static volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    // Guarded by the class lock
+    private static int used = CHUNK_BYTES;
+    
+    private final long address;
+    private final int options;
+    
+    private OffHeapVoteCounts(long address, int options) {
+        this.address = address;
+        this.options = options;
+    }
+    
+    // Polls created from now on count their votes off-heap
+    public static void enable() {
+        enabled = true;
+    }
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    // Carves the next free slots out of the current chunk and returns their address
+    public static synchronized long allocate(int options) {
+        int bytes = 8 * options;
+        if (options < 0 || bytes > CHUNK_BYTES) {
+            throw new IllegalArgumentException("Too many options for off-heap counts: " + options);
+        }
+        if (used + bytes > CHUNK_BYTES) {
+            // Direct buffers start zeroed and page-aligned, so every slot is aligned
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+            chunks = grown;
+            used = 0;
+        }
+        long address = (long) (chunks.length - 1) << 32 | used;
+        used += bytes;
+        return address;
+    }
+    
+    // The counters at an address, as a VoteCounts
+    public static OffHeapVoteCounts view(long address, int options) {
+        return new OffHeapVoteCounts(address, options);
+    }
+    
+    // Off-heap memory reserved so far, in bytes
+    public static long reservedBytes() {
+        return (long) CHUNK_BYTES * chunks.length;
+    }
+    
+    // Callers check optionIndex against the options allocated
+    public static void add(long address, int optionIndex, long count) {
+        SLOT.getAndAdd(chunks[(int) (address >>> 32)], (int) address + 8 * optionIndex, count);
+    }
+    
+    public static long get(long address, int optionIndex) {
+        return (long) SLOT.getVolatile(chunks[(int) (address >>> 32)], (int) address + 8 * optionIndex);
+    }
+    
+    @Override
+    public void increment(int optionIndex) {
+        add(address, check(optionIndex), 1L);
+    }
+    
+    @Override
+    public void add(int optionIndex, long count) {
+        add(address, check(optionIndex), count);
+    }
+    
+    @Override
+    public long get(int optionIndex) {
+        return get(address, check(optionIndex));
+    }
+    
+    @Override
+    public int size() {
+        return options;
+    }
+    
+    @Override
+    public long heapBytes() {
+        return 24;
+    }
+    
+    private int check(int optionIndex) {
+        if (optionIndex < 0 || optionIndex >= options) {
+            throw new ArrayIndexOutOfBoundsException(optionIndex);
+        }
+        return optionIndex;
+    }
+}
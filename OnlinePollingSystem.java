@@ -1,21 +1,114 @@
 import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.List;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
 
 // Class to represent a Poll
 class Poll {
+    private static final AtomicIntegerFieldUpdater<Poll> CHANGED =
+        AtomicIntegerFieldUpdater.newUpdater(Poll.class, "changed");
+    private static final AtomicIntegerFieldUpdater<Poll> UNPUBLISHED =
+        AtomicIntegerFieldUpdater.newUpdater(Poll.class, "unpublished");
+    private static final AtomicLongFieldUpdater<Poll> SNAPSHOT_VERSIONS =
+        AtomicLongFieldUpdater.newUpdater(Poll.class, "snapshotVersions");
+    private static final AtomicReferenceFieldUpdater<Poll, PollSnapshot> SNAPSHOT =
+        AtomicReferenceFieldUpdater.newUpdater(Poll.class, PollSnapshot.class, "snapshot");
+    private static final AtomicReferenceFieldUpdater<Poll, VoteRates> RATES =
+        AtomicReferenceFieldUpdater.newUpdater(Poll.class, VoteRates.class, "rates");
+    
+    private long id;
     private String question;
-    private ArrayList<String> options;
-    private ArrayList<Integer> votes;
+    // Replaced, never changed in place, when a write-in becomes an option
+    private volatile ArrayList<String> options;
+    // Option texts as write-ins are compared, built on first use
+    private volatile Map<String, Integer> optionKeys;
+    // Striped on-heap counters by default. Null for a poll counted off-heap,
+    // until an added option makes it a view of the slots plus the new one.
+    // Grows with the options, always before they are published.
+    private volatile VoteCounts votes;
+    // Where the poll's slots start in the OffHeapVoteCounts slab, and how
+    // many there are; used while votes is null
+    private final long offHeapCounts;
+    private final int offHeapOptions;
+    // Set by the first vote after clearChanged(), so a burst of votes
+    // produces one change notification instead of one per vote
+    private volatile int changed;
+    // Set by the first local count change after takeUnpublished(), which
+    // tells listeners once; see PollListener.pollCounted
+    private volatile int unpublished;
+    private volatile PollListener listener;
+    // Per-second and per-minute counts, allocated on the first live vote
+    private volatile VoteRates rates;
+    // Last snapshot handed out; rebuilt only after a vote has marked it stale
+    private volatile PollSnapshot snapshot;
+    private volatile boolean snapshotStale = true;
+    // Last version handed to a snapshot being built
+    private volatile long snapshotVersions;
+    // Null for polls open to unlimited votes
+    private final VoterFilter voterFilter;
+    // Counts from other cluster nodes; votes only ever count locally
+    private volatile ClusterCounts remote = ClusterCounts.EMPTY;
+    // Null for single-choice polls
+    private final BallotStore ballots;
+    // Null for polls without write-in answers
+    private final WriteInSketch writeIns;
     
     public Poll(String question, ArrayList<String> options) {
+        this(question, options, null);
+    }
+    
+    // With a voter filter, each voter id may vote only once
+    public Poll(String question, ArrayList<String> options, VoterFilter voterFilter) {
+        this(question, options, voterFilter, null);
+    }
+    
+    // With a ballot store, the poll takes ranked ballots instead of single votes
+    public Poll(String question, ArrayList<String> options, VoterFilter voterFilter, BallotStore ballots) {
+        this(question, options, voterFilter, ballots, null);
+    }
+    
+    // With a write-in sketch, voters may also answer in their own words
+    public Poll(String question, ArrayList<String> options, VoterFilter voterFilter, BallotStore ballots,
+            WriteInSketch writeIns) {
+        this(question, options, voterFilter, ballots, writeIns, VoteCounts.create(options.size()));
+    }
+    
+    // With null votes, the poll takes slots in the shared off-heap slab
+    Poll(String question, ArrayList<String> options, VoterFilter voterFilter, BallotStore ballots,
+            WriteInSketch writeIns, VoteCounts votes) {
+        if (ballots != null && writeIns != null) {
+            throw new IllegalArgumentException("Ranked polls cannot take write-ins");
+        }
+        this.voterFilter = voterFilter;
         this.question = question;
         this.options = options;
-        this.votes = new ArrayList<>();
-        for (int i = 0; i < options.size(); i++) {
-            votes.add(0);
-        }
+        this.ballots = ballots;
+        this.writeIns = writeIns;
+        this.votes = votes;
+        this.offHeapOptions = votes == null ? options.size() : 0;
+        this.offHeapCounts = votes == null ? OffHeapVoteCounts.allocate(offHeapOptions) : -1;
+    }
+    
+    // Assigned by PollRegistry when the poll is registered
+    public long getId() {
+        return id;
+    }
+    
+    void setId(long id) {
+        this.id = id;
     }
     
     public String getQuestion() {
@@ -26,33 +119,414 @@ class Poll {
         return options;
     }
     
+    public boolean requiresVoterId() {
+        return voterFilter != null;
+    }
+    
+    public VoterFilter getVoterFilter() {
+        return voterFilter;
+    }
+    
+    // Maps a voter id to the key the voter filter tracks; throws
+    // IllegalArgumentException if the id is missing or malformed
+    public long voterKey(String voterId) {
+        return voterFilter.keyOf(voterId == null ? "" : voterId);
+    }
+    
+    // True the first time a voter key is seen, false for a repeat vote.
+    // The caller then counts the vote with vote(int).
+    public boolean recordVoter(long key) {
+        return voterFilter.tryRecord(key);
+    }
+    
+    public boolean isRanked() {
+        return ballots != null;
+    }
+    
+    // Null for single-choice polls
+    public BallotStore getBallots() {
+        return ballots;
+    }
+    
+    // Stores a ranked ballot and counts its weight for its first choice, so
+    // the poll's counts show first preferences. The caller has checked the
+    // ballot with BallotStore.isValid.
+    public void castBallot(int[] ranking, int weight) {
+        ballots.add(ranking, weight);
+        count(ranking[0], weight);
+    }
+    
+    public boolean acceptsWriteIns() {
+        return writeIns != null;
+    }
+    
+    // Null for polls without write-ins
+    public WriteInSketch getWriteIns() {
+        return writeIns;
+    }
+    
+    // Counts a write-in answer, already passed through WriteInSketch.clean.
+    // An answer matching an option counts exactly for it and its index is
+    // returned; any other goes to the sketch and -1 is returned.
+    public int writeIn(String answer) {
+        int option = optionOf(answer);
+        if (option >= 0) {
+            vote(option);
+        } else {
+            writeIns.add(answer, 1);
+            notifyChanged();
+        }
+        return option;
+    }
+    
+    // The option matching text as write-ins are compared, or -1
+    public int optionOf(String text) {
+        Map<String, Integer> keys = optionKeys;
+        if (keys == null) {
+            List<String> current = options;
+            keys = new HashMap<>();
+            for (int i = 0; i < current.size(); i++) {
+                keys.putIfAbsent(WriteInSketch.key(current.get(i)), i);
+            }
+            optionKeys = keys;
+        }
+        Integer option = keys.get(WriteInSketch.key(text));
+        return option == null ? -1 : option;
+    }
+    
+    // Appends an option with no votes and returns its index. Callers
+    // serialize this; see PollRegistry.promoteWriteIn.
+    synchronized int addOption(String text) {
+        ArrayList<String> grown = new ArrayList<>(options);
+        grown.add(text);
+        VoteCounts counts = votes;
+        votes = ExtendedVoteCounts.withOption(counts == null
+            ? OffHeapVoteCounts.view(offHeapCounts, offHeapOptions) : counts);
+        options = grown;
+        optionKeys = null;
+        notifyChanged();
+        return grown.size() - 1;
+    }
+    
+    // Safe to call from any number of threads without locking
     public void vote(int optionIndex) {
-        if (optionIndex >= 0 && optionIndex < options.size()) {
-            votes.set(optionIndex, votes.get(optionIndex) + 1);
+        count(optionIndex, 1);
+    }
+    
+    private void count(int optionIndex, int weight) {
+        VoteCounts counts = votes;
+        int size = size(counts);
+        if (optionIndex >= 0 && optionIndex < size) {
+            if (counts == null) {
+                OffHeapVoteCounts.add(offHeapCounts, optionIndex, weight);
+            } else if (weight == 1) {
+                counts.increment(optionIndex);
+            } else {
+                counts.add(optionIndex, weight);
+            }
+            boolean newSecond = ratesFor(optionIndex, size).record(optionIndex, VoteRates.currentSecond());
+            notifyChanged();
+            notifyCounted();
+            PollListener target = listener;
+            if (newSecond && target != null) {
+                target.pollActive(this);
+            }
+        }
+    }
+    
+    private VoteRates ratesFor(int optionIndex, int size) {
+        VoteRates current = rates;
+        if (current == null) {
+            RATES.compareAndSet(this, null, new VoteRates(size));
+            current = rates;
+        }
+        if (optionIndex >= current.getOptionCount()) {
+            // The first vote for an option added since the rings were made
+            RATES.compareAndSet(this, current, current.widen(size));
+            current = rates;
+        }
+        return current;
+    }
+    
+    // Live votes cast together, deltas[i] for option i: counted and added to
+    // the vote rates like that many vote() calls, with one notification
+    public void castVotes(long[] deltas) {
+        VoteCounts counts = votes;
+        int size = size(counts);
+        long second = VoteRates.currentSecond();
+        boolean newSecond = false;
+        for (int i = 0; i < deltas.length && i < size; i++) {
+            if (deltas[i] != 0) {
+                add(counts, i, deltas[i]);
+                newSecond |= ratesFor(i, size).record(i, second, deltas[i]);
+            }
+        }
+        notifyChanged();
+        notifyCounted();
+        PollListener target = listener;
+        if (newSecond && target != null) {
+            target.pollActive(this);
+        }
+    }
+    
+    // Null until the poll receives its first vote
+    public VoteRates getRates() {
+        return rates;
+    }
+    
+    // Adds many votes at once, e.g. when restoring saved counts
+    public void addVotes(int optionIndex, long count) {
+        add(votes, optionIndex, count);
+        notifyChanged();
+        notifyCounted();
+    }
+    
+    // Adds pre-aggregated votes, deltas[i] for option i, with one change
+    // notification. They are new votes cast on this node, so listeners hear
+    // the poll is active, but they are not spread over the vote rates.
+    public void addVotes(long[] deltas) {
+        VoteCounts counts = votes;
+        for (int i = 0; i < deltas.length; i++) {
+            if (deltas[i] != 0) {
+                add(counts, i, deltas[i]);
+            }
+        }
+        notifyChanged();
+        notifyCounted();
+        PollListener target = listener;
+        if (target != null) {
+            target.pollActive(this);
+        }
+    }
+    
+    // Cluster-wide: this node's votes plus those merged from other nodes
+    public long getVotes(int optionIndex) {
+        return get(votes, optionIndex) + remote.total(optionIndex);
+    }
+    
+    // Votes cast on this node only; what the journal and snapshots store
+    public long getLocalVotes(int optionIndex) {
+        return get(votes, optionIndex);
+    }
+    
+    // Counters go through votes, or while that is null through the slab
+    private void add(VoteCounts counts, int optionIndex, long count) {
+        if (counts != null) {
+            counts.add(optionIndex, count);
+        } else {
+            OffHeapVoteCounts.add(offHeapCounts, offHeapIndex(optionIndex), count);
+        }
+    }
+    
+    private long get(VoteCounts counts, int optionIndex) {
+        return counts != null ? counts.get(optionIndex) : OffHeapVoteCounts.get(offHeapCounts, offHeapIndex(optionIndex));
+    }
+    
+    private int size(VoteCounts counts) {
+        return counts != null ? counts.size() : offHeapOptions;
+    }
+    
+    private int offHeapIndex(int optionIndex) {
+        if (optionIndex < 0 || optionIndex >= offHeapOptions) {
+            throw new ArrayIndexOutOfBoundsException(optionIndex);
+        }
+        return optionIndex;
+    }
+    
+    // Merges another node's cumulative counts for this poll. Returns true if
+    // any count rose; stale or repeated reports are ignored.
+    public synchronized boolean mergeRemote(int node, long[] counts) {
+        ClusterCounts current = remote;
+        ClusterCounts merged = current.merge(node, counts, options.size());
+        if (merged == current) {
+            return false;
+        }
+        remote = merged;
+        notifyChanged();
+        return true;
+    }
+    
+    public long getTotalVotes() {
+        return snapshot().getTotalVotes();
+    }
+    
+    // Returns a consistent view of all counts. Repeated calls between votes
+    // return the same instance, so the total is O(1) on a quiet poll.
+    public PollSnapshot snapshot() {
+        PollSnapshot current = snapshot;
+        if (current != null && !snapshotStale) {
+            return current;
+        }
+        // Clear the flag before reading, so a vote racing with the read
+        // marks the new snapshot stale again instead of being missed. The
+        // version, taken after clearing, orders this read after those of
+        // snapshots that cleared it earlier.
+        snapshotStale = false;
+        long version = SNAPSHOT_VERSIONS.incrementAndGet(this);
+        ClusterCounts others = remote;
+        // Options before counts: the counts grow first, so they cover every option read
+        ArrayList<String> currentOptions = options;
+        VoteCounts currentVotes = votes;
+        long[] counts = new long[currentOptions.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = get(currentVotes, i) + others.total(i);
+        }
+        current = new PollSnapshot(currentOptions, counts, version);
+        // A reader that read later may have published already; its counts
+        // are newer, so this one must not replace them
+        PollSnapshot published;
+        do {
+            published = snapshot;
+            if (published != null && published.version > version) {
+                return current;
+            }
+        } while (!SNAPSHOT.compareAndSet(this, published, current));
+        return current;
+    }
+    
+    // Rough heap footprint of this poll's question, options, counters,
+    // rate rings, voter filter, ballots and write-ins, for monitoring
+    public long estimatedBytes() {
+        long bytes = 64 + stringBytes(question) + 40 + 16 + 8L * options.size();
+        for (String option : options) {
+            bytes += 8 + stringBytes(option);
+        }
+        VoteCounts counts = votes;
+        if (counts != null) {
+            bytes += counts.heapBytes();
+        }
+        ClusterCounts others = remote;
+        if (others != ClusterCounts.EMPTY) {
+            bytes += others.heapBytes();
+        }
+        PollSnapshot current = snapshot;
+        if (current != null) {
+            bytes += 40 + 16 + 8L * size(counts);
+        }
+        VoteRates currentRates = rates;
+        if (currentRates != null) {
+            bytes += currentRates.memoryBytes();
+        }
+        if (voterFilter != null) {
+            bytes += voterFilter.memoryBytes();
+        }
+        if (ballots != null) {
+            bytes += ballots.memoryBytes();
+        }
+        if (writeIns != null) {
+            bytes += writeIns.memoryBytes();
+        }
+        return bytes;
+    }
+    
+    private static long stringBytes(String s) {
+        return 24 + 16 + s.length();
+    }
+    
+    // The listener runs on the voting thread, so it must be cheap and non-blocking
+    public void setListener(PollListener listener) {
+        this.listener = listener;
+    }
+    
+    // Re-arms the change notification; call before reading the new counts
+    public void clearChanged() {
+        changed = 0;
+    }
+    
+    // True, clearing the flag, if this node's counts changed since the last
+    // call. Clear before reading the counts: a vote racing with the read
+    // then sets the flag again and fires pollCounted.
+    public boolean takeUnpublished() {
+        if (unpublished == 0) {
+            return false;
         }
+        unpublished = 0;
+        return true;
     }
     
-    public int getVotes(int optionIndex) {
-        return votes.get(optionIndex);
+    private void notifyCounted() {
+        PollListener current = listener;
+        if (current != null && unpublished == 0 && UNPUBLISHED.compareAndSet(this, 0, 1)) {
+            current.pollCounted(this);
+        }
     }
     
-    public int getTotalVotes() {
-        int total = 0;
-        for (int vote : votes) {
-            total += vote;
+    private void notifyChanged() {
+        if (!snapshotStale) {
+            snapshotStale = true;
+        }
+        PollListener current = listener;
+        if (current != null && changed == 0 && CHANGED.compareAndSet(this, 0, 1)) {
+            current.pollChanged(this);
         }
-        return total;
     }
 }
 
 // Main GUI Application
 public class OnlinePollingSystem extends JFrame {
-    private ArrayList<Poll> polls;
+    // Shared by every screen instead of being recreated per poll
+    private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 24);
+    private static final Font QUESTION_FONT = new Font("Arial", Font.BOLD, 16);
+    private static final Font OPTION_FONT = new Font("Arial", Font.PLAIN, 14);
+    private static final Font MESSAGE_FONT = new Font("Arial", Font.PLAIN, 16);
+    private static final Font TOTAL_FONT = new Font("Arial", Font.ITALIC, 12);
+    private static final Color VOTE_CARD_COLOR = new Color(245, 245, 255);
+    private static final Color VOTE_BORDER_COLOR = new Color(70, 130, 180);
+    private static final Color RESULTS_CARD_COLOR = new Color(255, 250, 240);
+    private static final Color RESULTS_BORDER_COLOR = new Color(255, 140, 0);
+    private static final Color BAR_COLOR = new Color(60, 179, 113);
+    // Buttons on the detail screens, which are rebuilt on every visit
+    private static final Font DETAIL_BUTTON_FONT = new Font("Arial", Font.BOLD, 12);
+    private static final Color VOTE_BUTTON_COLOR = new Color(60, 179, 113);
+    private static final Dimension BAR_SIZE = new Dimension(400, 25);
+    private static final int SEARCH_LIMIT = 1000;
+    // Typing pause after which the search box runs its query
+    private static final int SEARCH_DELAY_MILLIS = 200;
+    private static final int TRENDING_COUNT = 20;
+    // Write-ins listed under a poll's results
+    private static final int WRITE_IN_ROWS = 10;
+    // How long a vote's outcome stays on the vote screen's status line
+    private static final int VOTE_STATUS_MILLIS = 4000;
+    private static final Color STATUS_OK_COLOR = new Color(34, 139, 34);
+    private static final Color STATUS_ERROR_COLOR = new Color(200, 40, 40);
+    
+    private PollRegistry polls;
     private JPanel mainPanel;
     private CardLayout cardLayout;
+    private PollListModel voteListModel;
+    private PollTableModel resultsTableModel;
+    private JList<Poll> voteList;
+    private JPanel voteDetail;
+    private JTable resultsTable;
+    private JPanel resultsDetail;
+    // Components of the poll shown in resultsDetail, updated in place as votes arrive
+    private Poll resultsDetailPoll;
+    private JLabel resultsTotalLabel;
+    private JProgressBar[] resultsBars;
+    // Top write-ins of resultsDetailPoll, if it takes them
+    private List<WriteInSketch.Entry> resultsWriteIns = Collections.emptyList();
+    private AbstractTableModel resultsWriteInModel;
+    private JTable resultsWriteInTable;
+    private JLabel resultsWriteInLabel;
+    private ResultsAggregator resultsAggregator;
+    private TrendingTracker trending;
+    private List<TrendingTracker.Entry> trendingEntries = Collections.emptyList();
+    private AbstractTableModel trendingTableModel;
+    // Votes are applied off the EDT and their outcomes shown on voteStatus
+    private VotePipeline pipeline;
+    private JLabel voteStatus;
+    private Timer voteStatusTimer;
     
-    public OnlinePollingSystem() {
-        polls = new ArrayList<>();
+    public OnlinePollingSystem(PollRegistry polls, TrendingTracker trending) {
+        this(polls, trending, new VotePipeline(polls, null));
+    }
+    
+    public OnlinePollingSystem(PollRegistry polls, TrendingTracker trending, VotePipeline pipeline) {
+        this.polls = polls;
+        this.trending = trending;
+        this.pipeline = pipeline;
+        this.voteListModel = new PollListModel(polls);
+        this.resultsTableModel = new PollTableModel(polls);
         
         setTitle("Online Polling System");
         setSize(700, 500);
@@ -66,9 +540,14 @@ public class OnlinePollingSystem extends JFrame {
         mainPanel.add(createCreatePollPanel(), "CREATE");
         mainPanel.add(createVotePanel(), "VOTE");
         mainPanel.add(createResultsPanel(), "RESULTS");
+        mainPanel.add(createTrendingPanel(), "TRENDING");
         
         add(mainPanel);
         cardLayout.show(mainPanel, "HOME");
+        
+        // About 30 frames per second of live results
+        resultsAggregator = new ResultsAggregator(polls, 33, this::updateResults);
+        resultsAggregator.start();
     }
     
     // Home Panel
@@ -82,13 +561,14 @@ public class OnlinePollingSystem extends JFrame {
         titleLabel.setBorder(BorderFactory.createEmptyBorder(40, 20, 40, 20));
         panel.add(titleLabel, BorderLayout.NORTH);
         
-        JPanel buttonPanel = new JPanel(new GridLayout(4, 1, 20, 20));
+        JPanel buttonPanel = new JPanel(new GridLayout(5, 1, 15, 15));
         buttonPanel.setBackground(new Color(240, 240, 250));
-        buttonPanel.setBorder(BorderFactory.createEmptyBorder(50, 150, 100, 150));
+        buttonPanel.setBorder(BorderFactory.createEmptyBorder(20, 150, 40, 150));
         
         JButton createBtn = createStyledButton("Create New Poll", new Color(70, 130, 180));
         JButton voteBtn = createStyledButton("Vote on a Poll", new Color(60, 179, 113));
         JButton resultsBtn = createStyledButton("View Results", new Color(255, 140, 0));
+        JButton trendingBtn = createStyledButton("Trending Polls", new Color(147, 112, 219));
         JButton exitBtn = createStyledButton("Exit", new Color(220, 60, 60));
         
         createBtn.addActionListener(e -> cardLayout.show(mainPanel, "CREATE"));
@@ -100,11 +580,16 @@ public class OnlinePollingSystem extends JFrame {
             refreshResultsPanel();
             cardLayout.show(mainPanel, "RESULTS");
         });
+        trendingBtn.addActionListener(e -> {
+            refreshTrendingPanel();
+            cardLayout.show(mainPanel, "TRENDING");
+        });
         exitBtn.addActionListener(e -> System.exit(0));
         
         buttonPanel.add(createBtn);
         buttonPanel.add(voteBtn);
         buttonPanel.add(resultsBtn);
+        buttonPanel.add(trendingBtn);
         buttonPanel.add(exitBtn);
         
         panel.add(buttonPanel, BorderLayout.CENTER);
@@ -149,6 +634,41 @@ public class OnlinePollingSystem extends JFrame {
         formPanel.add(scrollPane);
         formPanel.add(Box.createVerticalStrut(20));
         
+        JLabel votersLabel = new JLabel("Who can vote:");
+        votersLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        JComboBox<String> votersBox = new JComboBox<>(new String[] {
+            "Anyone, any number of times",
+            "One vote per numeric voter ID",
+            "One vote per voter ID (approximate)"
+        });
+        votersBox.setMaximumSize(new Dimension(600, 30));
+        
+        formPanel.add(votersLabel);
+        formPanel.add(Box.createVerticalStrut(10));
+        formPanel.add(votersBox);
+        formPanel.add(Box.createVerticalStrut(20));
+        
+        JLabel ballotLabel = new JLabel("Ballot:");
+        ballotLabel.setFont(new Font("Arial", Font.BOLD, 14));
+        JComboBox<String> ballotBox = new JComboBox<>(new String[] {
+            "Pick one option",
+            "Rank the options (instant runoff)",
+            "Rank the options, weighted ballots"
+        });
+        ballotBox.setMaximumSize(new Dimension(600, 30));
+        
+        formPanel.add(ballotLabel);
+        formPanel.add(Box.createVerticalStrut(10));
+        formPanel.add(ballotBox);
+        formPanel.add(Box.createVerticalStrut(10));
+        
+        JCheckBox writeInBox = new JCheckBox("Accept write-in answers");
+        writeInBox.setBackground(Color.WHITE);
+        writeInBox.setFont(new Font("Arial", Font.PLAIN, 14));
+        
+        formPanel.add(writeInBox);
+        formPanel.add(Box.createVerticalStrut(20));
+        
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 0));
         buttonPanel.setBackground(Color.WHITE);
         
@@ -173,26 +693,69 @@ public class OnlinePollingSystem extends JFrame {
                 return;
             }
             
-            String[] optionLines = optionsText.split("\n");
-            ArrayList<String> options = new ArrayList<>();
-            for (String line : optionLines) {
-                if (!line.trim().isEmpty()) {
-                    options.add(line.trim());
-                }
-            }
+            ArrayList<String> options = parseOptions(optionsText);
             
             if (options.size() < 2) {
                 JOptionPane.showMessageDialog(this, "Please enter at least 2 options!", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
             
-            Poll newPoll = new Poll(question, options);
-            polls.add(newPoll);
+            VoterFilter voterFilter = null;
+            if (votersBox.getSelectedIndex() == 1) {
+                voterFilter = VoterFilter.fromSpec("dense");
+            } else if (votersBox.getSelectedIndex() == 2) {
+                voterFilter = VoterFilter.fromSpec("bloom");
+            }
             
-            JOptionPane.showMessageDialog(this, "Poll created successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-            questionField.setText("");
-            optionsArea.setText("");
-            cardLayout.show(mainPanel, "HOME");
+            BallotStore ballots = null;
+            if (ballotBox.getSelectedIndex() > 0) {
+                if (options.size() > BallotStore.MAX_CANDIDATES) {
+                    JOptionPane.showMessageDialog(this, "Ranked polls take at most " + BallotStore.MAX_CANDIDATES
+                        + " options!", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                ballots = BallotStore.fromSpec(ballotBox.getSelectedIndex() == 1 ? "ranked" : "weighted", options.size());
+            }
+            
+            WriteInSketch writeIns = null;
+            if (writeInBox.isSelected()) {
+                if (ballots != null) {
+                    JOptionPane.showMessageDialog(this, "Ranked polls cannot take write-in answers!", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                writeIns = WriteInSketch.fromSpec("writein");
+            }
+            
+            Poll newPoll = new Poll(question, options, voterFilter, ballots, writeIns);
+            // Registering waits for the journal's fsync, so not on the EDT
+            createBtn.setEnabled(false);
+            new SwingWorker<Long, Void>() {
+                @Override
+                protected Long doInBackground() {
+                    return polls.add(newPoll);
+                }
+                
+                @Override
+                protected void done() {
+                    createBtn.setEnabled(true);
+                    try {
+                        get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                        JOptionPane.showMessageDialog(OnlinePollingSystem.this, "Could not create the poll: "
+                            + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    JOptionPane.showMessageDialog(OnlinePollingSystem.this, "Poll created successfully!", "Success",
+                        JOptionPane.INFORMATION_MESSAGE);
+                    questionField.setText("");
+                    optionsArea.setText("");
+                    votersBox.setSelectedIndex(0);
+                    ballotBox.setSelectedIndex(0);
+                    writeInBox.setSelected(false);
+                    cardLayout.show(mainPanel, "HOME");
+                }
+            }.execute();
         });
         
         backBtn.addActionListener(e -> cardLayout.show(mainPanel, "HOME"));
@@ -205,6 +768,18 @@ public class OnlinePollingSystem extends JFrame {
         return panel;
     }
     
+    // One option per non-blank line of the options text area
+    static ArrayList<String> parseOptions(String optionsText) {
+        String[] optionLines = optionsText.split("\n");
+        ArrayList<String> options = new ArrayList<>();
+        for (String line : optionLines) {
+            if (!line.trim().isEmpty()) {
+                options.add(line.trim());
+            }
+        }
+        return options;
+    }
+    
     // Vote Panel
     private JPanel createVotePanel() {
         JPanel panel = new JPanel(new BorderLayout());
@@ -212,130 +787,293 @@ public class OnlinePollingSystem extends JFrame {
         panel.setName("VOTE_PANEL");
         
         JLabel titleLabel = new JLabel("Vote on a Poll", SwingConstants.CENTER);
-        titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
+        titleLabel.setFont(TITLE_FONT);
         titleLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-        panel.add(titleLabel, BorderLayout.NORTH);
+        panel.add(createSearchHeader(titleLabel, matches -> {
+            voteListModel.setFilter(matches);
+            showVoteDetail();
+        }), BorderLayout.NORTH);
         
-        JButton backBtn = new JButton("Back to Home");
-        backBtn.setBackground(new Color(150, 150, 150));
-        backBtn.setForeground(Color.WHITE);
-        backBtn.setFont(new Font("Arial", Font.BOLD, 14));
-        backBtn.setFocusPainted(false);
-        backBtn.addActionListener(e -> cardLayout.show(mainPanel, "HOME"));
+        // Only the rows scrolled into view are ever rendered, through one
+        // shared renderer, so the screen costs the same for 10 or 10k polls
+        voteList = createPollList(polls, voteListModel);
+        voteList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showVoteDetail();
+            }
+        });
         
-        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-        bottomPanel.setBackground(Color.WHITE);
-        bottomPanel.add(backBtn);
-        panel.add(bottomPanel, BorderLayout.SOUTH);
+        voteDetail = new JPanel(new BorderLayout());
+        voteDetail.setBackground(Color.WHITE);
+        voteDetail.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
+        
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(voteList), new JScrollPane(voteDetail));
+        splitPane.setDividerLocation(240);
+        panel.add(splitPane, BorderLayout.CENTER);
         
+        // Outcomes of submitted votes, shown without a dialog so voting
+        // never blocks the screen; a space keeps the line's height
+        voteStatus = new JLabel(" ", SwingConstants.CENTER);
+        voteStatus.setFont(OPTION_FONT);
+        voteStatusTimer = new Timer(VOTE_STATUS_MILLIS, e -> voteStatus.setText(" "));
+        voteStatusTimer.setRepeats(false);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.setBackground(Color.WHITE);
+        southPanel.add(voteStatus, BorderLayout.NORTH);
+        southPanel.add(createBackButtonPanel(), BorderLayout.CENTER);
+        panel.add(southPanel, BorderLayout.SOUTH);
         return panel;
     }
     
+    private void showVoteStatus(String text, boolean error) {
+        voteStatus.setForeground(error ? STATUS_ERROR_COLOR : STATUS_OK_COLOR);
+        voteStatus.setText(text);
+        voteStatusTimer.restart();
+    }
+    
+    // Reports a vote's outcome; true if it was accepted
+    private boolean reportVote(VoteResult result, String accepted, String invalid) {
+        if (result == VoteResult.ACCEPTED) {
+            showVoteStatus(accepted, false);
+            return true;
+        }
+        if (result == VoteResult.NOT_DURABLE) {
+            showVoteStatus("Vote counted, but it could not be saved to disk!", true);
+            return true;
+        }
+        showVoteStatus(result == VoteResult.DUPLICATE ? "This voter has already voted on this poll!" : invalid, true);
+        return false;
+    }
+    
+    // Hands a vote to the pipeline without waiting for it; the request's
+    // callback, wrapped by onEdt, reports the outcome
+    private void submitVote(VotePipeline.Request request) {
+        if (!pipeline.offer(request)) {
+            showVoteStatus("Too many votes in flight, please try again.", true);
+        }
+    }
+    
+    private static Consumer<VoteResult> onEdt(Consumer<VoteResult> callback) {
+        return result -> SwingUtilities.invokeLater(() -> callback.accept(result));
+    }
+    
     private void refreshVotePanel() {
-        Component[] components = mainPanel.getComponents();
-        for (Component comp : components) {
-            if (comp instanceof JPanel && "VOTE_PANEL".equals(comp.getName())) {
-                JPanel votePanel = (JPanel) comp;
-                votePanel.removeAll();
-                
-                JLabel titleLabel = new JLabel("Vote on a Poll", SwingConstants.CENTER);
-                titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
-                titleLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-                votePanel.add(titleLabel, BorderLayout.NORTH);
-                
-                JPanel contentPanel = new JPanel();
-                contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.Y_AXIS));
-                contentPanel.setBackground(Color.WHITE);
-                contentPanel.setBorder(BorderFactory.createEmptyBorder(20, 40, 20, 40));
-                
-                if (polls.isEmpty()) {
-                    JLabel noPolls = new JLabel("No polls available. Create one first!");
-                    noPolls.setFont(new Font("Arial", Font.PLAIN, 16));
-                    contentPanel.add(noPolls);
-                } else {
-                    for (int i = 0; i < polls.size(); i++) {
-                        final int pollIndex = i;
-                        Poll poll = polls.get(i);
-                        
-                        JPanel pollPanel = new JPanel();
-                        pollPanel.setLayout(new BoxLayout(pollPanel, BoxLayout.Y_AXIS));
-                        pollPanel.setBackground(new Color(245, 245, 255));
-                        pollPanel.setBorder(BorderFactory.createCompoundBorder(
-                            BorderFactory.createLineBorder(new Color(70, 130, 180), 2),
-                            BorderFactory.createEmptyBorder(15, 15, 15, 15)
-                        ));
-                        
-                        JLabel questionLabel = new JLabel((i + 1) + ". " + poll.getQuestion());
-                        questionLabel.setFont(new Font("Arial", Font.BOLD, 16));
-                        pollPanel.add(questionLabel);
-                        pollPanel.add(Box.createVerticalStrut(10));
-                        
-                        ButtonGroup buttonGroup = new ButtonGroup();
-                        ArrayList<JRadioButton> radioButtons = new ArrayList<>();
-                        
-                        for (int j = 0; j < poll.getOptions().size(); j++) {
-                            JRadioButton radioButton = new JRadioButton(poll.getOptions().get(j));
-                            radioButton.setBackground(new Color(245, 245, 255));
-                            radioButton.setFont(new Font("Arial", Font.PLAIN, 14));
-                            buttonGroup.add(radioButton);
-                            radioButtons.add(radioButton);
-                            pollPanel.add(radioButton);
-                        }
-                        
-                        pollPanel.add(Box.createVerticalStrut(10));
-                        
-                        JButton voteBtn = new JButton("Submit Vote");
-                        voteBtn.setBackground(new Color(60, 179, 113));
-                        voteBtn.setForeground(Color.WHITE);
-                        voteBtn.setFont(new Font("Arial", Font.BOLD, 12));
-                        voteBtn.setFocusPainted(false);
-                        voteBtn.setAlignmentX(Component.LEFT_ALIGNMENT);
-                        
-                        voteBtn.addActionListener(e -> {
-                            int selectedOption = -1;
-                            for (int k = 0; k < radioButtons.size(); k++) {
-                                if (radioButtons.get(k).isSelected()) {
-                                    selectedOption = k;
-                                    break;
-                                }
-                            }
-                            
-                            if (selectedOption != -1) {
-                                polls.get(pollIndex).vote(selectedOption);
-                                JOptionPane.showMessageDialog(this, "Vote recorded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                                buttonGroup.clearSelection();
-                            } else {
-                                JOptionPane.showMessageDialog(this, "Please select an option!", "Error", JOptionPane.WARNING_MESSAGE);
-                            }
-                        });
-                        
-                        pollPanel.add(voteBtn);
-                        contentPanel.add(pollPanel);
-                        contentPanel.add(Box.createVerticalStrut(15));
+        PollEvents.PanelRefresh event = new PollEvents.PanelRefresh();
+        event.begin();
+        voteListModel.refresh();
+        if (voteList.isSelectionEmpty() && voteListModel.getSize() > 0) {
+            voteList.setSelectedIndex(0);
+        }
+        showVoteDetail();
+        event.panel = "vote";
+        event.rows = voteListModel.getSize();
+        event.commit();
+    }
+    
+    // Builds the ballot for the selected poll only
+    private void showVoteDetail() {
+        voteDetail.removeAll();
+        int row = voteList.getSelectedIndex();
+        
+        if (polls.isEmpty()) {
+            JLabel noPolls = new JLabel("No polls available. Create one first!");
+            noPolls.setFont(MESSAGE_FONT);
+            voteDetail.add(noPolls, BorderLayout.NORTH);
+        } else if (row < 0) {
+            JLabel noSelection = new JLabel("Select a poll to vote on.");
+            noSelection.setFont(MESSAGE_FONT);
+            voteDetail.add(noSelection, BorderLayout.NORTH);
+        } else {
+            Poll poll = voteListModel.getElementAt(row);
+            long pollId = poll.getId();
+            
+            JPanel pollPanel = new JPanel();
+            pollPanel.setLayout(new BoxLayout(pollPanel, BoxLayout.Y_AXIS));
+            pollPanel.setBackground(VOTE_CARD_COLOR);
+            pollPanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(VOTE_BORDER_COLOR, 2),
+                BorderFactory.createEmptyBorder(15, 15, 15, 15)
+            ));
+            
+            JLabel questionLabel = new JLabel(pollLabel(poll));
+            questionLabel.setFont(QUESTION_FONT);
+            pollPanel.add(questionLabel);
+            pollPanel.add(Box.createVerticalStrut(10));
+            
+            ButtonGroup buttonGroup = new ButtonGroup();
+            ArrayList<JRadioButton> radioButtons = new ArrayList<>();
+            // Ranked polls get one drop-down per choice instead of radio buttons
+            ArrayList<JComboBox<String>> rankBoxes = new ArrayList<>();
+            
+            if (poll.isRanked()) {
+                String[] choices = new String[poll.getOptions().size() + 1];
+                choices[0] = "(none)";
+                for (int j = 0; j < poll.getOptions().size(); j++) {
+                    choices[j + 1] = poll.getOptions().get(j);
+                }
+                for (int r = 0; r < poll.getBallots().getRanks(); r++) {
+                    JComboBox<String> rankBox = new JComboBox<>(choices);
+                    rankBox.setFont(OPTION_FONT);
+                    rankBoxes.add(rankBox);
+                    pollPanel.add(labeledRow("Choice " + (r + 1) + ":", rankBox));
+                    pollPanel.add(Box.createVerticalStrut(5));
+                }
+            } else {
+                for (int j = 0; j < poll.getOptions().size(); j++) {
+                    JRadioButton radioButton = new JRadioButton(poll.getOptions().get(j));
+                    radioButton.setBackground(VOTE_CARD_COLOR);
+                    radioButton.setFont(OPTION_FONT);
+                    buttonGroup.add(radioButton);
+                    radioButtons.add(radioButton);
+                    pollPanel.add(radioButton);
+                }
+            }
+            
+            // Write-in polls add a free-text answer after the options
+            JRadioButton otherButton = new JRadioButton("Other:");
+            JTextField writeInField = new JTextField();
+            if (poll.acceptsWriteIns()) {
+                otherButton.setBackground(VOTE_CARD_COLOR);
+                otherButton.setFont(OPTION_FONT);
+                buttonGroup.add(otherButton);
+                writeInField.addFocusListener(new FocusAdapter() {
+                    @Override
+                    public void focusGained(FocusEvent e) {
+                        otherButton.setSelected(true);
+                    }
+                });
+                JPanel otherRow = new JPanel(new BorderLayout(10, 0));
+                otherRow.setBackground(VOTE_CARD_COLOR);
+                otherRow.setAlignmentX(Component.LEFT_ALIGNMENT);
+                otherRow.setMaximumSize(new Dimension(400, 30));
+                otherRow.add(otherButton, BorderLayout.WEST);
+                otherRow.add(writeInField, BorderLayout.CENTER);
+                pollPanel.add(otherRow);
+            }
+            
+            pollPanel.add(Box.createVerticalStrut(10));
+            
+            JTextField weightField = new JTextField("1");
+            if (poll.isRanked() && poll.getBallots().isWeighted()) {
+                pollPanel.add(labeledRow("Weight:", weightField));
+                pollPanel.add(Box.createVerticalStrut(10));
+            }
+            
+            JTextField voterField = new JTextField();
+            if (poll.requiresVoterId()) {
+                pollPanel.add(labeledRow("Voter ID:", voterField));
+                pollPanel.add(Box.createVerticalStrut(10));
+            }
+            
+            JButton voteBtn = new JButton("Submit Vote");
+            voteBtn.setBackground(VOTE_BUTTON_COLOR);
+            voteBtn.setForeground(Color.WHITE);
+            voteBtn.setFont(DETAIL_BUTTON_FONT);
+            voteBtn.setFocusPainted(false);
+            voteBtn.setAlignmentX(Component.LEFT_ALIGNMENT);
+            
+            voteBtn.addActionListener(e -> {
+                if (poll.isRanked()) {
+                    submitBallot(pollId, rankBoxes, weightField, voterField);
+                    return;
+                }
+                if (otherButton.isSelected()) {
+                    submitWriteIn(pollId, writeInField, voterField, buttonGroup);
+                    return;
+                }
+                int selectedOption = -1;
+                for (int k = 0; k < radioButtons.size(); k++) {
+                    if (radioButtons.get(k).isSelected()) {
+                        selectedOption = k;
+                        break;
                     }
                 }
                 
-                JScrollPane scrollPane = new JScrollPane(contentPanel);
-                scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-                votePanel.add(scrollPane, BorderLayout.CENTER);
-                
-                JButton backBtn = new JButton("Back to Home");
-                backBtn.setBackground(new Color(150, 150, 150));
-                backBtn.setForeground(Color.WHITE);
-                backBtn.setFont(new Font("Arial", Font.BOLD, 14));
-                backBtn.setFocusPainted(false);
-                backBtn.addActionListener(e -> cardLayout.show(mainPanel, "HOME"));
-                
-                JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-                bottomPanel.setBackground(Color.WHITE);
-                bottomPanel.add(backBtn);
-                votePanel.add(bottomPanel, BorderLayout.SOUTH);
-                
-                votePanel.revalidate();
-                votePanel.repaint();
-                break;
+                if (selectedOption != -1) {
+                    submitVote(VotePipeline.Request.vote(pollId, selectedOption, voterField.getText().trim(), onEdt(result -> {
+                        if (reportVote(result, "Vote recorded successfully!", "Please enter a valid voter ID!")) {
+                            buttonGroup.clearSelection();
+                            voterField.setText("");
+                        }
+                    })));
+                } else {
+                    showVoteStatus("Please select an option!", true);
+                }
+            });
+            
+            pollPanel.add(voteBtn);
+            voteDetail.add(pollPanel, BorderLayout.NORTH);
+        }
+        
+        voteDetail.revalidate();
+        voteDetail.repaint();
+    }
+    
+    // A label and a field on one line of a vote card
+    private static JPanel labeledRow(String text, JComponent field) {
+        JPanel row = new JPanel(new BorderLayout(10, 0));
+        row.setBackground(VOTE_CARD_COLOR);
+        row.setAlignmentX(Component.LEFT_ALIGNMENT);
+        row.setMaximumSize(new Dimension(400, 30));
+        JLabel label = new JLabel(text);
+        label.setFont(OPTION_FONT);
+        row.add(label, BorderLayout.WEST);
+        row.add(field, BorderLayout.CENTER);
+        return row;
+    }
+    
+    private void submitWriteIn(long pollId, JTextField writeInField, JTextField voterField, ButtonGroup buttonGroup) {
+        if (WriteInSketch.clean(writeInField.getText()).isEmpty()) {
+            showVoteStatus("Please enter an answer!", true);
+            return;
+        }
+        submitVote(VotePipeline.Request.writeIn(pollId, writeInField.getText(), voterField.getText().trim(), onEdt(result -> {
+            if (reportVote(result, "Vote recorded successfully!", "Please enter a valid voter ID!")) {
+                buttonGroup.clearSelection();
+                writeInField.setText("");
+                voterField.setText("");
+            }
+        })));
+    }
+    
+    // Choices left at "(none)" are skipped, so a ballot may rank fewer options
+    private void submitBallot(long pollId, List<JComboBox<String>> rankBoxes, JTextField weightField, JTextField voterField) {
+        ArrayList<Integer> chosen = new ArrayList<>();
+        for (JComboBox<String> rankBox : rankBoxes) {
+            int option = rankBox.getSelectedIndex() - 1;
+            if (option < 0) {
+                continue;
+            }
+            if (chosen.contains(option)) {
+                showVoteStatus("Each option can only be ranked once!", true);
+                return;
             }
+            chosen.add(option);
         }
+        if (chosen.isEmpty()) {
+            showVoteStatus("Please rank at least one option!", true);
+            return;
+        }
+        int weight;
+        try {
+            weight = Integer.parseInt(weightField.getText().trim());
+        } catch (NumberFormatException ex) {
+            weight = 0;
+        }
+        int[] ranking = new int[chosen.size()];
+        for (int i = 0; i < ranking.length; i++) {
+            ranking[i] = chosen.get(i);
+        }
+        
+        submitVote(VotePipeline.Request.ballot(pollId, ranking, weight, voterField.getText().trim(), onEdt(result -> {
+            if (reportVote(result, "Ballot recorded successfully!", "Please enter a valid weight and voter ID!")) {
+                for (JComboBox<String> rankBox : rankBoxes) {
+                    rankBox.setSelectedIndex(0);
+                }
+                weightField.setText("1");
+                voterField.setText("");
+            }
+        })));
     }
     
     // Results Panel
@@ -345,123 +1083,588 @@ public class OnlinePollingSystem extends JFrame {
         panel.setName("RESULTS_PANEL");
         
         JLabel titleLabel = new JLabel("Poll Results", SwingConstants.CENTER);
-        titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
+        titleLabel.setFont(TITLE_FONT);
         titleLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-        panel.add(titleLabel, BorderLayout.NORTH);
+        panel.add(createSearchHeader(titleLabel, matches -> {
+            resultsTableModel.setFilter(matches);
+            showResultsDetail();
+        }), BorderLayout.NORTH);
         
-        JButton backBtn = new JButton("Back to Home");
-        backBtn.setBackground(new Color(150, 150, 150));
-        backBtn.setForeground(Color.WHITE);
-        backBtn.setFont(new Font("Arial", Font.BOLD, 14));
-        backBtn.setFocusPainted(false);
-        backBtn.addActionListener(e -> cardLayout.show(mainPanel, "HOME"));
+        // Totals are read per visible row at paint time, never for the whole table
+        resultsTable = createResultsTable(resultsTableModel);
+        resultsTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showResultsDetail();
+            }
+        });
         
-        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-        bottomPanel.setBackground(Color.WHITE);
-        bottomPanel.add(backBtn);
-        panel.add(bottomPanel, BorderLayout.SOUTH);
+        resultsDetail = new JPanel(new BorderLayout());
+        resultsDetail.setBackground(Color.WHITE);
+        resultsDetail.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
+        
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(resultsTable), new JScrollPane(resultsDetail));
+        splitPane.setDividerLocation(150);
+        panel.add(splitPane, BorderLayout.CENTER);
         
+        JButton importBtn = new JButton("Import...");
+        JButton exportBtn = new JButton("Export...");
+        for (JButton button : new JButton[] {importBtn, exportBtn}) {
+            button.setBackground(RESULTS_BORDER_COLOR);
+            button.setForeground(Color.WHITE);
+            button.setFont(new Font("Arial", Font.BOLD, 14));
+            button.setFocusPainted(false);
+        }
+        importBtn.addActionListener(e -> importPolls(importBtn));
+        exportBtn.addActionListener(e -> exportResults(exportBtn));
+        JPanel bottomPanel = createBackButtonPanel();
+        bottomPanel.add(importBtn, 0);
+        bottomPanel.add(exportBtn, 1);
+        panel.add(bottomPanel, BorderLayout.SOUTH);
         return panel;
     }
     
+    // Bulk import from CSV or JSON lines, see PollImporter; runs off the EDT
+    // while the results refresh as polls and votes arrive
+    private void importPolls(JButton importBtn) {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        importBtn.setEnabled(false);
+        importBtn.setText("Importing...");
+        new SwingWorker<PollImporter.Result, Void>() {
+            @Override
+            protected PollImporter.Result doInBackground() throws IOException {
+                return PollImporter.importFile(polls, file);
+            }
+            
+            @Override
+            protected void done() {
+                importBtn.setEnabled(true);
+                importBtn.setText("Import...");
+                try {
+                    PollImporter.Result result = get();
+                    refreshResultsPanel();
+                    JTextArea summary = new JTextArea(PollImporter.summary(result), 10, 60);
+                    summary.setEditable(false);
+                    JOptionPane.showMessageDialog(OnlinePollingSystem.this, new JScrollPane(summary), "Import Finished",
+                        result.rejected == 0 ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(OnlinePollingSystem.this, "Could not import " + file + ": " + e.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+    
+    // Writes every poll's results as CSV, or as JSON lines for a .jsonl file
+    private void exportResults(JButton exportBtn) {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        exportBtn.setEnabled(false);
+        exportBtn.setText("Exporting...");
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws IOException {
+                return PollExporter.export(polls, file, PollImporter.Format.of(file));
+            }
+            
+            @Override
+            protected void done() {
+                exportBtn.setEnabled(true);
+                exportBtn.setText("Export...");
+                try {
+                    JOptionPane.showMessageDialog(OnlinePollingSystem.this, get() + " polls exported to " + file,
+                        "Export Finished", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(OnlinePollingSystem.this, "Could not export to " + file + ": " + e.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+    
     private void refreshResultsPanel() {
-        Component[] components = mainPanel.getComponents();
-        for (Component comp : components) {
-            if (comp instanceof JPanel && "RESULTS_PANEL".equals(comp.getName())) {
-                JPanel resultsPanel = (JPanel) comp;
-                resultsPanel.removeAll();
+        PollEvents.PanelRefresh event = new PollEvents.PanelRefresh();
+        event.begin();
+        resultsTableModel.refresh();
+        if (resultsTable.getSelectedRow() < 0 && resultsTableModel.getRowCount() > 0) {
+            resultsTable.setRowSelectionInterval(0, 0);
+        }
+        showResultsDetail();
+        event.panel = "results";
+        event.rows = resultsTableModel.getRowCount();
+        event.commit();
+    }
+    
+    // Builds the progress bars for the selected poll only
+    private void showResultsDetail() {
+        resultsDetail.removeAll();
+        int row = resultsTable.getSelectedRow();
+        resultsDetailPoll = null;
+        resultsBars = null;
+        resultsWriteIns = Collections.emptyList();
+        resultsWriteInModel = null;
+        
+        if (polls.isEmpty()) {
+            JLabel noPolls = new JLabel("No polls available.");
+            noPolls.setFont(MESSAGE_FONT);
+            resultsDetail.add(noPolls, BorderLayout.NORTH);
+        } else if (row >= 0) {
+            Poll poll = resultsTableModel.getPoll(row);
+            
+            JPanel pollPanel = new JPanel();
+            pollPanel.setLayout(new BoxLayout(pollPanel, BoxLayout.Y_AXIS));
+            pollPanel.setBackground(RESULTS_CARD_COLOR);
+            pollPanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(RESULTS_BORDER_COLOR, 2),
+                BorderFactory.createEmptyBorder(15, 15, 15, 15)
+            ));
+            
+            JLabel questionLabel = new JLabel(pollLabel(poll));
+            questionLabel.setFont(QUESTION_FONT);
+            pollPanel.add(questionLabel);
+            pollPanel.add(Box.createVerticalStrut(10));
+            
+            resultsTotalLabel = new JLabel();
+            resultsTotalLabel.setFont(TOTAL_FONT);
+            pollPanel.add(resultsTotalLabel);
+            pollPanel.add(Box.createVerticalStrut(10));
+            
+            resultsBars = new JProgressBar[poll.getOptions().size()];
+            for (int j = 0; j < poll.getOptions().size(); j++) {
+                JLabel optionLabel = new JLabel(poll.getOptions().get(j));
+                optionLabel.setFont(OPTION_FONT);
+                pollPanel.add(optionLabel);
                 
-                JLabel titleLabel = new JLabel("Poll Results", SwingConstants.CENTER);
-                titleLabel.setFont(new Font("Arial", Font.BOLD, 24));
-                titleLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-                resultsPanel.add(titleLabel, BorderLayout.NORTH);
+                JPanel barPanel = new JPanel();
+                barPanel.setLayout(new BoxLayout(barPanel, BoxLayout.X_AXIS));
+                barPanel.setBackground(RESULTS_CARD_COLOR);
                 
-                JPanel contentPanel = new JPanel();
-                contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.Y_AXIS));
-                contentPanel.setBackground(Color.WHITE);
-                contentPanel.setBorder(BorderFactory.createEmptyBorder(20, 40, 20, 40));
+                JProgressBar progressBar = new JProgressBar(0, 100);
+                progressBar.setStringPainted(true);
+                progressBar.setPreferredSize(BAR_SIZE);
+                progressBar.setMaximumSize(BAR_SIZE);
+                progressBar.setForeground(BAR_COLOR);
+                resultsBars[j] = progressBar;
                 
-                if (polls.isEmpty()) {
-                    JLabel noPolls = new JLabel("No polls available.");
-                    noPolls.setFont(new Font("Arial", Font.PLAIN, 16));
-                    contentPanel.add(noPolls);
-                } else {
-                    for (int i = 0; i < polls.size(); i++) {
-                        Poll poll = polls.get(i);
-                        
-                        JPanel pollPanel = new JPanel();
-                        pollPanel.setLayout(new BoxLayout(pollPanel, BoxLayout.Y_AXIS));
-                        pollPanel.setBackground(new Color(255, 250, 240));
-                        pollPanel.setBorder(BorderFactory.createCompoundBorder(
-                            BorderFactory.createLineBorder(new Color(255, 140, 0), 2),
-                            BorderFactory.createEmptyBorder(15, 15, 15, 15)
-                        ));
-                        
-                        JLabel questionLabel = new JLabel((i + 1) + ". " + poll.getQuestion());
-                        questionLabel.setFont(new Font("Arial", Font.BOLD, 16));
-                        pollPanel.add(questionLabel);
-                        pollPanel.add(Box.createVerticalStrut(10));
-                        
-                        int totalVotes = poll.getTotalVotes();
-                        JLabel totalLabel = new JLabel("Total Votes: " + totalVotes);
-                        totalLabel.setFont(new Font("Arial", Font.ITALIC, 12));
-                        pollPanel.add(totalLabel);
-                        pollPanel.add(Box.createVerticalStrut(10));
-                        
-                        for (int j = 0; j < poll.getOptions().size(); j++) {
-                            int votes = poll.getVotes(j);
-                            double percentage = totalVotes > 0 ? (votes * 100.0 / totalVotes) : 0;
-                            
-                            JLabel optionLabel = new JLabel(poll.getOptions().get(j));
-                            optionLabel.setFont(new Font("Arial", Font.PLAIN, 14));
-                            pollPanel.add(optionLabel);
-                            
-                            JPanel barPanel = new JPanel();
-                            barPanel.setLayout(new BoxLayout(barPanel, BoxLayout.X_AXIS));
-                            barPanel.setBackground(new Color(255, 250, 240));
-                            
-                            JProgressBar progressBar = new JProgressBar(0, 100);
-                            progressBar.setValue((int) percentage);
-                            progressBar.setStringPainted(true);
-                            progressBar.setString(votes + " votes (" + String.format("%.1f", percentage) + "%)");
-                            progressBar.setPreferredSize(new Dimension(400, 25));
-                            progressBar.setMaximumSize(new Dimension(400, 25));
-                            progressBar.setForeground(new Color(60, 179, 113));
-                            
-                            barPanel.add(progressBar);
-                            barPanel.add(Box.createHorizontalGlue());
-                            pollPanel.add(barPanel);
-                            pollPanel.add(Box.createVerticalStrut(5));
-                        }
-                        
-                        contentPanel.add(pollPanel);
-                        contentPanel.add(Box.createVerticalStrut(15));
-                    }
+                barPanel.add(progressBar);
+                barPanel.add(Box.createHorizontalGlue());
+                pollPanel.add(barPanel);
+                pollPanel.add(Box.createVerticalStrut(5));
+            }
+            
+            if (poll.isRanked()) {
+                JButton countBtn = new JButton("Count Rounds");
+                countBtn.setBackground(RESULTS_BORDER_COLOR);
+                countBtn.setForeground(Color.WHITE);
+                countBtn.setFont(DETAIL_BUTTON_FONT);
+                countBtn.setFocusPainted(false);
+                JPanel roundsPanel = new JPanel(new BorderLayout(0, 5));
+                roundsPanel.setBackground(RESULTS_CARD_COLOR);
+                roundsPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+                countBtn.addActionListener(e -> countRounds(poll, countBtn, roundsPanel));
+                pollPanel.add(Box.createVerticalStrut(10));
+                pollPanel.add(countBtn);
+                pollPanel.add(Box.createVerticalStrut(10));
+                pollPanel.add(roundsPanel);
+            }
+            
+            if (poll.acceptsWriteIns()) {
+                pollPanel.add(Box.createVerticalStrut(10));
+                pollPanel.add(createWriteInPanel(poll));
+            }
+            
+            resultsDetail.add(pollPanel, BorderLayout.NORTH);
+            resultsDetailPoll = poll;
+            updateResultsBars(poll);
+        }
+        
+        resultsDetail.revalidate();
+        resultsDetail.repaint();
+    }
+    
+    // Called by the aggregator on the EDT for each poll that received votes
+    private void updateResults(long pollId) {
+        int row = resultsTableModel.rowOf(pollId);
+        if (row >= 0) {
+            resultsTableModel.fireTableRowsUpdated(row, row);
+        }
+        if (resultsDetailPoll != null && resultsDetailPoll.getId() == pollId) {
+            if (resultsDetailPoll.getOptions().size() != resultsBars.length) {
+                // A write-in was promoted to an option
+                showResultsDetail();
+            } else {
+                updateResultsBars(resultsDetailPoll);
+            }
+        }
+    }
+    
+    // The estimated top write-ins, refreshed with the bars, and a button to
+    // make the selected one an option
+    private JPanel createWriteInPanel(Poll poll) {
+        JPanel writeInPanel = new JPanel(new BorderLayout(0, 5));
+        writeInPanel.setBackground(RESULTS_CARD_COLOR);
+        writeInPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        
+        resultsWriteInLabel = new JLabel();
+        resultsWriteInLabel.setFont(TOTAL_FONT);
+        writeInPanel.add(resultsWriteInLabel, BorderLayout.NORTH);
+        
+        resultsWriteInModel = new AbstractTableModel() {
+            public int getRowCount() {
+                return resultsWriteIns.size();
+            }
+            
+            public int getColumnCount() {
+                return 3;
+            }
+            
+            public String getColumnName(int column) {
+                return column == 0 ? "Write-in" : column == 1 ? "Votes (at most)" : "At least";
+            }
+            
+            public Object getValueAt(int row, int column) {
+                WriteInSketch.Entry entry = resultsWriteIns.get(row);
+                return column == 0 ? entry.text : column == 1 ? entry.upper : entry.lower;
+            }
+        };
+        resultsWriteInTable = new JTable(resultsWriteInModel);
+        resultsWriteInTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultsWriteInTable.setFillsViewportHeight(true);
+        JScrollPane scroll = new JScrollPane(resultsWriteInTable);
+        scroll.setPreferredSize(new Dimension(500, 24 + 18 * WRITE_IN_ROWS));
+        writeInPanel.add(scroll, BorderLayout.CENTER);
+        
+        JButton promoteBtn = new JButton("Promote Selected");
+        promoteBtn.setBackground(RESULTS_BORDER_COLOR);
+        promoteBtn.setForeground(Color.WHITE);
+        promoteBtn.setFont(DETAIL_BUTTON_FONT);
+        promoteBtn.setFocusPainted(false);
+        promoteBtn.addActionListener(e -> {
+            int row = resultsWriteInTable.getSelectedRow();
+            if (row < 0) {
+                JOptionPane.showMessageDialog(this, "Please select a write-in!", "Error", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            String text = resultsWriteIns.get(row).text;
+            // Adding the option waits for the journal's fsync, so not on the EDT
+            promoteBtn.setEnabled(false);
+            new SwingWorker<Integer, Void>() {
+                @Override
+                protected Integer doInBackground() {
+                    return polls.promoteWriteIn(poll.getId(), text);
                 }
                 
-                JScrollPane scrollPane = new JScrollPane(contentPanel);
-                scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-                resultsPanel.add(scrollPane, BorderLayout.CENTER);
-                
-                JButton backBtn = new JButton("Back to Home");
-                backBtn.setBackground(new Color(150, 150, 150));
-                backBtn.setForeground(Color.WHITE);
-                backBtn.setFont(new Font("Arial", Font.BOLD, 14));
-                backBtn.setFocusPainted(false);
-                backBtn.addActionListener(e -> cardLayout.show(mainPanel, "HOME"));
-                
-                JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-                bottomPanel.setBackground(Color.WHITE);
-                bottomPanel.add(backBtn);
-                resultsPanel.add(bottomPanel, BorderLayout.SOUTH);
-                
-                resultsPanel.revalidate();
-                resultsPanel.repaint();
-                break;
+                @Override
+                protected void done() {
+                    promoteBtn.setEnabled(true);
+                    try {
+                        get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                        JOptionPane.showMessageDialog(OnlinePollingSystem.this, cause.getMessage(), "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    showResultsDetail();
+                }
+            }.execute();
+        });
+        JPanel buttonRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        buttonRow.setBackground(RESULTS_CARD_COLOR);
+        buttonRow.add(promoteBtn);
+        writeInPanel.add(buttonRow, BorderLayout.SOUTH);
+        return writeInPanel;
+    }
+    
+    // Runs the instant-runoff count off the EDT, since a poll may hold
+    // millions of ballots; the rounds are not recounted as new ballots arrive
+    private void countRounds(Poll poll, JButton countBtn, JPanel roundsPanel) {
+        countBtn.setEnabled(false);
+        countBtn.setText("Counting...");
+        new SwingWorker<TallyEngine.Result, Void>() {
+            @Override
+            protected TallyEngine.Result doInBackground() {
+                return TallyEngine.instantRunoff(poll.getBallots());
+            }
+            
+            @Override
+            protected void done() {
+                countBtn.setEnabled(true);
+                countBtn.setText("Count Rounds");
+                try {
+                    showRounds(poll, get(), roundsPanel);
+                } catch (InterruptedException | ExecutionException e) {
+                    JOptionPane.showMessageDialog(OnlinePollingSystem.this, "Could not count the ballots: " + e.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+    
+    // One row per option plus exhausted ballots, one column per round
+    private void showRounds(Poll poll, TallyEngine.Result result, JPanel roundsPanel) {
+        roundsPanel.removeAll();
+        String summary;
+        if (result.winner < 0) {
+            summary = "No ballots to count yet.";
+        } else {
+            summary = String.format("Winner: %s after %d round%s (%d ballots counted in %d ms)",
+                poll.getOptions().get(result.winner), result.rounds.size(), result.rounds.size() == 1 ? "" : "s",
+                result.ballots, result.elapsedNanos / 1_000_000);
+        }
+        JLabel summaryLabel = new JLabel(summary);
+        summaryLabel.setFont(TOTAL_FONT);
+        roundsPanel.add(summaryLabel, BorderLayout.NORTH);
+        
+        int optionCount = poll.getOptions().size();
+        JTable roundsTable = new JTable(new AbstractTableModel() {
+            public int getRowCount() {
+                return optionCount + 1;
+            }
+            
+            public int getColumnCount() {
+                return result.rounds.size() + 1;
+            }
+            
+            public String getColumnName(int column) {
+                return column == 0 ? "Option" : "Round " + column;
+            }
+            
+            public Object getValueAt(int row, int column) {
+                if (column == 0) {
+                    return row < optionCount ? poll.getOptions().get(row) : "Exhausted";
+                }
+                TallyEngine.Round round = result.rounds.get(column - 1);
+                if (row == optionCount) {
+                    return round.exhausted;
+                }
+                // Blank once an option is out; marked in the round it goes
+                boolean out = false;
+                for (int r = 0; r < column - 1; r++) {
+                    out |= result.rounds.get(r).eliminated == row;
+                }
+                if (out) {
+                    return "";
+                }
+                return round.eliminated == row ? round.counts[row] + " (out)" : String.valueOf(round.counts[row]);
+            }
+        });
+        roundsTable.setFillsViewportHeight(true);
+        JScrollPane scroll = new JScrollPane(roundsTable);
+        scroll.setPreferredSize(new Dimension(500, Math.min(300, 24 + 18 * (optionCount + 1))));
+        roundsPanel.add(scroll, BorderLayout.CENTER);
+        roundsPanel.revalidate();
+        roundsPanel.repaint();
+    }
+    
+    // Only changes text and values, so the detail panel is repainted but not laid out again
+    private void updateResultsBars(Poll poll) {
+        PollSnapshot results = poll.snapshot();
+        // Ranked polls count each ballot's weight for its first choice
+        resultsTotalLabel.setText((poll.isRanked() ? "First Preferences: " : "Total Votes: ") + results.getTotalVotes());
+        for (int j = 0; j < resultsBars.length; j++) {
+            long votes = results.getVotes(j);
+            double percentage = results.getPercentage(j);
+            resultsBars[j].setValue((int) percentage);
+            resultsBars[j].setString(votes + " votes (" + String.format("%.1f", percentage) + "%)");
+        }
+        if (resultsWriteInModel != null) {
+            WriteInSketch writeIns = poll.getWriteIns();
+            // Keep the selected answer selected as the order changes
+            int selected = resultsWriteInTable.getSelectedRow();
+            String selectedText = selected >= 0 ? resultsWriteIns.get(selected).text : null;
+            resultsWriteIns = writeIns.top(WRITE_IN_ROWS);
+            resultsWriteInModel.fireTableDataChanged();
+            for (int i = 0; i < resultsWriteIns.size(); i++) {
+                if (resultsWriteIns.get(i).text.equals(selectedText)) {
+                    resultsWriteInTable.setRowSelectionInterval(i, i);
+                }
             }
+            long untracked = writeIns.maxUntracked();
+            resultsWriteInLabel.setText("Write-ins: " + writeIns.total() + " (estimated in "
+                + writeIns.memoryBytes() / 1024 + " KB"
+                + (untracked > 0 ? "; an answer no longer tracked has at most " + untracked + ")" : ")"));
         }
     }
     
+    // Trending Panel
+    private JPanel createTrendingPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBackground(Color.WHITE);
+        
+        JLabel titleLabel = new JLabel("Trending Polls", SwingConstants.CENTER);
+        titleLabel.setFont(TITLE_FONT);
+        titleLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+        panel.add(titleLabel, BorderLayout.NORTH);
+        
+        trendingTableModel = new AbstractTableModel() {
+            private final String[] columns = {"Rank", "Question", "Last Minute", "Last Hour"};
+            
+            public int getRowCount() {
+                return trendingEntries.size();
+            }
+            
+            public int getColumnCount() {
+                return columns.length;
+            }
+            
+            public String getColumnName(int column) {
+                return columns[column];
+            }
+            
+            public Object getValueAt(int row, int column) {
+                TrendingTracker.Entry entry = trendingEntries.get(row);
+                switch (column) {
+                    case 0: return row + 1;
+                    case 1: return pollLabel(entry.poll);
+                    case 2: return entry.recentVotes;
+                    default:
+                        VoteRates rates = entry.poll.getRates();
+                        return rates == null ? 0 : rates.votesInLastMinutes(VoteRates.MINUTES, VoteRates.currentSecond());
+                }
+            }
+        };
+        JTable table = new JTable(trendingTableModel);
+        table.setRowHeight(24);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setMaxWidth(60);
+        table.getColumnModel().getColumn(2).setMaxWidth(110);
+        table.getColumnModel().getColumn(3).setMaxWidth(110);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        
+        panel.add(createBackButtonPanel(), BorderLayout.SOUTH);
+        
+        // Re-rank once a second while the screen is showing
+        new Timer(1000, e -> {
+            if (panel.isShowing()) {
+                refreshTrendingPanel();
+            }
+        }).start();
+        return panel;
+    }
+    
+    private void refreshTrendingPanel() {
+        trendingEntries = trending.top(TRENDING_COUNT, VoteRates.SECONDS);
+        trendingTableModel.fireTableDataChanged();
+    }
+    
+    // Numbered by creation order, whatever row the poll is shown in
+    private String pollLabel(Poll poll) {
+        return pollLabel(polls, poll);
+    }
+    
+    static String pollLabel(PollRegistry polls, Poll poll) {
+        return (polls.indexOf(poll.getId()) + 1) + ". " + poll.getQuestion();
+    }
+    
+    // Poll list for the vote screen; also built headless by PollBenchmark
+    static JList<Poll> createPollList(PollRegistry polls, PollListModel model) {
+        JList<Poll> list = new JList<>(model);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFixedCellHeight(28);
+        list.setFixedCellWidth(220);
+        list.setFont(OPTION_FONT);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Poll poll = (Poll) value;
+                return super.getListCellRendererComponent(list, pollLabel(polls, poll), index, isSelected, cellHasFocus);
+            }
+        });
+        return list;
+    }
+    
+    // Poll table for the results screen; also built headless by PollBenchmark
+    static JTable createResultsTable(PollTableModel model) {
+        JTable table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setRowHeight(24);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setMaxWidth(60);
+        table.getColumnModel().getColumn(2).setMaxWidth(110);
+        return table;
+    }
+    
+    // Title above a search box. Once typing pauses for SEARCH_DELAY_MILLIS
+    // the query runs on a worker thread, and onResults gets its matches on
+    // the EDT, or null for an empty box. Results of a query the box no
+    // longer holds are dropped.
+    private JPanel createSearchHeader(JLabel titleLabel, Consumer<List<Poll>> onResults) {
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText("Search questions and options");
+        Timer searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> {
+            String query = searchField.getText().trim();
+            if (query.isEmpty()) {
+                onResults.accept(null);
+                return;
+            }
+            new SwingWorker<List<Poll>, Void>() {
+                @Override
+                protected List<Poll> doInBackground() {
+                    return polls.search(query, SEARCH_LIMIT);
+                }
+                
+                @Override
+                protected void done() {
+                    if (!query.equals(searchField.getText().trim())) {
+                        return;
+                    }
+                    try {
+                        onResults.accept(get());
+                    } catch (InterruptedException | ExecutionException ex) {
+                        System.err.println("Search failed: " + ex);
+                    }
+                }
+            }.execute();
+        });
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+        
+        JLabel searchLabel = new JLabel("Search: ");
+        searchLabel.setFont(OPTION_FONT);
+        JPanel searchPanel = new JPanel(new BorderLayout());
+        searchPanel.setBackground(Color.WHITE);
+        searchPanel.setBorder(BorderFactory.createEmptyBorder(0, 20, 10, 20));
+        searchPanel.add(searchLabel, BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        
+        JPanel header = new JPanel(new BorderLayout());
+        header.setBackground(Color.WHITE);
+        header.add(titleLabel, BorderLayout.NORTH);
+        header.add(searchPanel, BorderLayout.CENTER);
+        return header;
+    }
+    
+    private JPanel createBackButtonPanel() {
+        JButton backBtn = new JButton("Back to Home");
+        backBtn.setBackground(new Color(150, 150, 150));
+        backBtn.setForeground(Color.WHITE);
+        backBtn.setFont(new Font("Arial", Font.BOLD, 14));
+        backBtn.setFocusPainted(false);
+        backBtn.addActionListener(e -> cardLayout.show(mainPanel, "HOME"));
+        
+        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        bottomPanel.setBackground(Color.WHITE);
+        bottomPanel.add(backBtn);
+        return bottomPanel;
+    }
+    
     private JButton createStyledButton(String text, Color bgColor) {
         JButton button = new JButton(text);
         button.setFont(new Font("Arial", Font.BOLD, 18));
@@ -483,10 +1686,88 @@ public class OnlinePollingSystem extends JFrame {
         return button;
     }
     
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            OnlinePollingSystem app = new OnlinePollingSystem();
-            app.setVisible(true);
-        });
+    // Usage: java OnlinePollingSystem [--server] [--port N] [--gui]
+    //                                  [--data-dir DIR] [--no-persist]
+    //                                  [--offheap-counts]
+    //                                  [--node-id N --cluster-dir DIR]
+    // Without --server the Swing GUI runs as before; with --server the HTTP
+    // API is started and the GUI only opens when --gui is also given.
+    // Polls and votes are journaled to --data-dir (default "polls-data").
+    // --offheap-counts keeps vote counters outside the Java heap.
+    // Processes given the same --cluster-dir and distinct --node-id values
+    // (and their own --data-dir each) share polls and cluster-wide totals.
+    public static void main(String[] args) throws Exception {
+        boolean serverMode = false;
+        boolean withGui = false;
+        int port = 8080;
+        String dataDir = "polls-data";
+        int nodeId = 0;
+        String clusterDir = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--server": serverMode = true; break;
+                case "--gui": withGui = true; break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--data-dir": dataDir = args[++i]; break;
+                case "--no-persist": dataDir = null; break;
+                case "--offheap-counts": OffHeapVoteCounts.enable(); break;
+                case "--node-id": nodeId = Integer.parseInt(args[++i]); break;
+                case "--cluster-dir": clusterDir = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        
+        PollRegistry registry = new PollRegistry();
+        registry.setNodeId(nodeId);
+        VoteJournal journal = null;
+        if (dataDir != null) {
+            journal = VoteJournal.open(Paths.get(dataDir), registry);
+            registry.setJournal(journal);
+        }
+        ClusterSync cluster = clusterDir == null ? null : ClusterSync.start(registry, Paths.get(clusterDir));
+        VoteJournal openJournal = journal;
+        // Shared by the GUI and the HTTP API; callbacks run on its writer thread
+        VotePipeline pipeline = new VotePipeline(registry, null);
+        PollMetrics metrics = new PollMetrics(registry);
+        metrics.register();
+        registry.setMetrics(metrics);
+        TrendingTracker trending = new TrendingTracker(registry);
+        PollServer server = serverMode ? new PollServer(registry, trending, port, pipeline) : null;
+        // One hook, in order: the server stops taking requests and finishes
+        // those in flight, the pipeline applies what is queued, and the
+        // cluster stops registering polls, all before the journal closes
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (server != null) {
+                server.stop();
+            }
+            pipeline.close();
+            try {
+                if (cluster != null) {
+                    cluster.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not leave cluster: " + e.getMessage());
+            }
+            try {
+                if (openJournal != null) {
+                    openJournal.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not close vote journal: " + e.getMessage());
+            }
+        }));
+        if (server != null) {
+            server.start();
+            System.out.println("Polling server listening on port " + server.getPort());
+        }
+        if (!serverMode || withGui) {
+            EdtStallDetector.install(metrics);
+            SwingUtilities.invokeLater(() -> {
+                OnlinePollingSystem app = new OnlinePollingSystem(registry, trending, pipeline);
+                app.setVisible(true);
+            });
+        }
     }
 }
@@ -0,0 +1,586 @@
+import javax.swing.*;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Microbenchmarks for the hot paths: voting under contention, reading totals,
+// instant-runoff counts, parsing the create form and building the
+// vote/results screens headless.
+// Each benchmark runs in fresh JVMs (forks), so the JIT profile one leaves
+// behind cannot speed up or slow down the next; in each fork it is warmed
+// up, then measured over several fixed-length iterations. Results go to a
+// JSON file that a later run can compare against. --forks 0 runs everything
+// in this JVM, which is quicker but only fit for a rough look.
+//
+//   java -Djava.awt.headless=true PollBenchmark [--quick] [--forks N]
+//        [--filter TEXT] [--out FILE] [--baseline FILE]
+class PollBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final int DEFAULT_FORKS = 2;
+    private static final int[] OPTION_COUNTS = {2, 10, 100};
+    private static final int[] POLL_COUNTS = {10, 1000, 10000};
+    private static final int[] BALLOT_COUNTS = {100000, 1000000, 10000000};
+    private static final int VIEWPORT_HEIGHT = 400;
+    
+    // Results are folded in here so the JIT cannot drop the work
+    static volatile long sink;
+    
+    // One benchmark: setup runs once, then each thread calls loop until
+    // running goes false and reports how many operations it completed
+    abstract static class Bench {
+        final String name;
+        final String params;
+        final int threads;
+        
+        Bench(String name, String params, int threads) {
+            this.name = name;
+            this.params = params;
+            this.threads = threads;
+        }
+        
+        String id() {
+            return params.isEmpty() ? name : name + " " + params;
+        }
+        
+        void setup() throws Exception {
+        }
+        
+        abstract long loop(int thread) throws Exception;
+    }
+    
+    static class Result {
+        final Bench bench;
+        final double score;
+        final double error;
+        
+        Result(Bench bench, double score, double error) {
+            this.bench = bench;
+            this.score = score;
+            this.error = error;
+        }
+        
+        // Average time one thread spends per operation
+        double nanosPerOp() {
+            return score > 0 ? bench.threads * 1e9 / score : 0;
+        }
+    }
+    
+    private static volatile boolean running;
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        long iterationMillis = 1000;
+        int forks = DEFAULT_FORKS;
+        String filter = null;
+        String out = "bench-results.json";
+        String baseline = null;
+        String child = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick": iterationMillis = 200; forks = 1; break;
+                case "--iteration-millis": iterationMillis = Long.parseLong(args[++i]); break;
+                case "--forks": forks = Integer.parseInt(args[++i]); break;
+                case "--child": child = args[++i]; break;
+                case "--filter": filter = args[++i]; break;
+                case "--out": out = args[++i]; break;
+                case "--baseline": baseline = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        
+        if (child != null) {
+            runChild(child, iterationMillis);
+            return;
+        }
+        
+        List<Result> results = new ArrayList<>();
+        for (Bench bench : benchmarks()) {
+            if (filter != null && !bench.id().contains(filter)) {
+                continue;
+            }
+            Result result = run(bench, iterationMillis, forks);
+            results.add(result);
+            System.out.printf("%-32s %14.0f ops/s  +- %5.1f%%  %10.1f ns/op%n",
+                bench.id(), result.score, percent(result.error, result.score), result.nanosPerOp());
+        }
+        
+        Files.write(Paths.get(out), toJson(results, iterationMillis, forks).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out);
+        if (baseline != null) {
+            compare(results, baseline);
+        }
+    }
+    
+    private static List<Bench> benchmarks() {
+        List<Bench> list = new ArrayList<>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        for (int t = 1; t <= cores; t *= 2) {
+            threadCounts.add(t);
+        }
+        threadCounts.add(cores);
+        for (int threads : threadCounts) {
+            list.add(voteBench(threads, false));
+        }
+        for (int threads : threadCounts) {
+            list.add(voteBench(threads, true));
+        }
+        list.add(registryVoteBench(false));
+        list.add(registryVoteBench(true));
+        for (int threads : threadCounts) {
+            list.add(pipelineVoteBench(threads));
+        }
+        for (int options : OPTION_COUNTS) {
+            list.add(totalVotesBench(options, false));
+            list.add(totalVotesBench(options, true));
+        }
+        for (int ballots : BALLOT_COUNTS) {
+            list.add(instantRunoffBench(ballots));
+        }
+        for (int lines : OPTION_COUNTS) {
+            list.add(parseOptionsBench(lines));
+        }
+        for (int count : POLL_COUNTS) {
+            list.add(votePanelBench(count));
+        }
+        for (int count : POLL_COUNTS) {
+            list.add(resultsPanelBench(count));
+        }
+        return list;
+    }
+    
+    // Every thread votes on the same poll, spread across its options
+    private static Bench voteBench(int threads, boolean offHeap) {
+        return new Bench(offHeap ? "vote.offHeap" : "vote", "threads=" + threads, threads) {
+            Poll poll;
+            
+            void setup() {
+                // Null counts: the poll's slots are in the off-heap slab
+                VoteCounts counts = offHeap ? null : new StripedVoteCounts(4);
+                poll = new Poll("Benchmark", options(4), null, null, null, counts);
+            }
+            
+            long loop(int thread) {
+                long ops = 0;
+                while (running) {
+                    poll.vote((int) (ops + thread) & 3);
+                    ops++;
+                }
+                return ops;
+            }
+        };
+    }
+    
+    // The full vote path without a journal, to price the metrics on top of it
+    private static Bench registryVoteBench(boolean withMetrics) {
+        return new Bench("registryVote", withMetrics ? "metrics=on" : "metrics=off", 1) {
+            PollRegistry registry;
+            long pollId;
+            
+            void setup() {
+                registry = new PollRegistry();
+                pollId = registry.add(new Poll("Benchmark", options(4)));
+                if (withMetrics) {
+                    registry.setMetrics(new PollMetrics(registry));
+                }
+            }
+            
+            long loop(int thread) {
+                long ops = 0;
+                while (running) {
+                    registry.vote(pollId, (int) ops & 3);
+                    ops++;
+                }
+                return ops;
+            }
+        };
+    }
+    
+    // Votes handed to a VotePipeline; once its queue fills, submitters only
+    // go as fast as the writer applies batches, so this prices the writer
+    private static Bench pipelineVoteBench(int threads) {
+        return new Bench("pipelineVote", "threads=" + threads, threads) {
+            VotePipeline pipeline;
+            long pollId;
+            
+            void setup() {
+                PollRegistry registry = new PollRegistry();
+                pollId = registry.add(new Poll("Benchmark", options(4)));
+                pipeline = new VotePipeline(registry, null);
+            }
+            
+            long loop(int thread) throws InterruptedException {
+                long ops = 0;
+                while (running) {
+                    pipeline.put(VotePipeline.Request.vote(pollId, (int) (ops + thread) & 3, null, null));
+                    ops++;
+                }
+                return ops;
+            }
+        };
+    }
+    
+    // Cached reads the same snapshot; afterVote forces a rebuild every time
+    private static Bench totalVotesBench(int options, boolean afterVote) {
+        return new Bench(afterVote ? "totalVotes.afterVote" : "totalVotes.cached", "options=" + options, 1) {
+            Poll poll;
+            
+            void setup() {
+                poll = new Poll("Benchmark", options(options));
+                for (int i = 0; i < options; i++) {
+                    poll.vote(i);
+                }
+            }
+            
+            long loop(int thread) {
+                long ops = 0;
+                long total = 0;
+                while (running) {
+                    if (afterVote) {
+                        poll.vote((int) (ops % options));
+                    }
+                    total += poll.getTotalVotes();
+                    ops++;
+                }
+                sink = total;
+                return ops;
+            }
+        };
+    }
+    
+    // A full count of weighted ballots over 12 options, skewed so that most
+    // options are eliminated before one reaches a majority
+    private static Bench instantRunoffBench(int count) {
+        return new Bench("instantRunoff", "ballots=" + count, 1) {
+            BallotStore ballots;
+            
+            void setup() {
+                ballots = new BallotStore(12, 6, true);
+                Random random = new Random(42);
+                for (int i = 0; i < count; i++) {
+                    int[] ranking = new int[1 + random.nextInt(6)];
+                    boolean[] used = new boolean[12];
+                    for (int r = 0; r < ranking.length; r++) {
+                        int option;
+                        do {
+                            double x = random.nextDouble();
+                            option = (int) (12 * x * x);
+                        } while (used[option]);
+                        used[option] = true;
+                        ranking[r] = option;
+                    }
+                    ballots.add(ranking, 1 + random.nextInt(3));
+                }
+            }
+            
+            long loop(int thread) {
+                long ops = 0;
+                long winners = 0;
+                while (running) {
+                    winners += TallyEngine.instantRunoff(ballots).winner;
+                    ops++;
+                }
+                sink = winners;
+                return ops;
+            }
+        };
+    }
+    
+    // The create form's options text area, one option per line
+    private static Bench parseOptionsBench(int lines) {
+        return new Bench("parseOptions", "lines=" + lines, 1) {
+            String text;
+            
+            void setup() {
+                text = String.join("\n", options(lines));
+            }
+            
+            long loop(int thread) {
+                long ops = 0;
+                long size = 0;
+                while (running) {
+                    size += OnlinePollingSystem.parseOptions(text).size();
+                    ops++;
+                }
+                sink = size;
+                return ops;
+            }
+        };
+    }
+    
+    // Opening the vote screen: a fresh list over the registry, first row
+    // selected and one viewport painted
+    private static Bench votePanelBench(int count) {
+        return new Bench("votePanel", "polls=" + count, 1) {
+            PollRegistry registry;
+            BufferedImage image;
+            
+            void setup() {
+                registry = registry(count);
+                image = new BufferedImage(220, VIEWPORT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            }
+            
+            long loop(int thread) throws Exception {
+                return onEdt(() -> {
+                    JList<Poll> list = OnlinePollingSystem.createPollList(registry, new PollListModel(registry));
+                    list.setSelectedIndex(0);
+                    list.setSize(220, VIEWPORT_HEIGHT);
+                    paint(list, image);
+                });
+            }
+        };
+    }
+    
+    // Opening the results screen: a fresh table with one viewport painted
+    private static Bench resultsPanelBench(int count) {
+        return new Bench("resultsPanel", "polls=" + count, 1) {
+            PollRegistry registry;
+            BufferedImage image;
+            
+            void setup() {
+                registry = registry(count);
+                image = new BufferedImage(460, VIEWPORT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            }
+            
+            long loop(int thread) throws Exception {
+                return onEdt(() -> {
+                    JTable table = OnlinePollingSystem.createResultsTable(new PollTableModel(registry));
+                    table.setRowSelectionInterval(0, 0);
+                    table.setSize(460, VIEWPORT_HEIGHT);
+                    paint(table, image);
+                });
+            }
+        };
+    }
+    
+    // Swing work runs on the EDT like the real screens; the clip keeps the
+    // paint to what a scroll pane would show
+    private static long onEdt(Runnable op) throws Exception {
+        long[] ops = new long[1];
+        SwingUtilities.invokeAndWait(() -> {
+            while (running) {
+                op.run();
+                ops[0]++;
+            }
+        });
+        return ops[0];
+    }
+    
+    private static void paint(JComponent component, BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setClip(0, 0, image.getWidth(), image.getHeight());
+            component.paint(g);
+        } finally {
+            g.dispose();
+        }
+        sink += image.getRGB(0, 0);
+    }
+    
+    private static PollRegistry registry(int count) {
+        PollRegistry registry = new PollRegistry();
+        for (int i = 0; i < count; i++) {
+            Poll poll = new Poll("Benchmark question number " + i, options(4));
+            registry.add(poll);
+            poll.vote(i & 3);
+        }
+        return registry;
+    }
+    
+    private static ArrayList<String> options(int count) {
+        ArrayList<String> options = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            options.add("Option " + (i + 1));
+        }
+        return options;
+    }
+    
+    // The error is the spread of the measured iterations of all forks
+    private static Result run(Bench bench, long iterationMillis, int forks) throws Exception {
+        double[] scores;
+        if (forks == 0) {
+            scores = measure(bench, iterationMillis);
+        } else {
+            scores = new double[forks * MEASURE_ITERATIONS];
+            for (int f = 0; f < forks; f++) {
+                System.arraycopy(fork(bench, iterationMillis), 0, scores, f * MEASURE_ITERATIONS, MEASURE_ITERATIONS);
+            }
+        }
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        return new Result(bench, mean, Math.sqrt(variance / (scores.length - 1)));
+    }
+    
+    private static double[] measure(Bench bench, long iterationMillis) throws Exception {
+        bench.setup();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(bench, iterationMillis);
+        }
+        double[] scores = new double[MEASURE_ITERATIONS];
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            scores[i] = iteration(bench, iterationMillis);
+        }
+        return scores;
+    }
+    
+    // Measures one benchmark in a new JVM with this one's class path and
+    // JVM options, and reads its scores back from the child's last line
+    private static double[] fork(Bench bench, long iterationMillis) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(PollBenchmark.class.getName());
+        command.add("--child");
+        command.add(bench.id());
+        command.add("--iteration-millis");
+        command.add(Long.toString(iterationMillis));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String last = null;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                last = line;
+            }
+        }
+        int status = process.waitFor();
+        if (status != 0 || last == null || !last.startsWith("scores ")) {
+            throw new IOException("Fork for " + bench.id() + " failed with status " + status);
+        }
+        String[] parts = last.substring("scores ".length()).trim().split(" ");
+        double[] scores = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            scores[i] = Double.parseDouble(parts[i]);
+        }
+        if (scores.length != MEASURE_ITERATIONS) {
+            throw new IOException("Fork for " + bench.id() + " reported " + scores.length + " scores");
+        }
+        return scores;
+    }
+    
+    // The forked side of fork()
+    private static void runChild(String id, long iterationMillis) throws Exception {
+        for (Bench bench : benchmarks()) {
+            if (bench.id().equals(id)) {
+                StringBuilder line = new StringBuilder("scores");
+                for (double score : measure(bench, iterationMillis)) {
+                    line.append(' ').append(String.format(Locale.ROOT, "%.1f", score));
+                }
+                System.out.println(line);
+                System.exit(0);
+            }
+        }
+        System.err.println("Unknown benchmark: " + id);
+        System.exit(2);
+    }
+    
+    // Operations per second summed over all threads for one iteration
+    private static double iteration(Bench bench, long iterationMillis) throws Exception {
+        long[] ops = new long[bench.threads];
+        Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[bench.threads];
+        running = true;
+        for (int t = 0; t < bench.threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    ops[thread] = bench.loop(thread);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(iterationMillis);
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long total = 0;
+        for (long count : ops) {
+            total += count;
+        }
+        return total * 1e9 / elapsed;
+    }
+    
+    private static String toJson(List<Result> results, long iterationMillis, int forks) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"jvm\": \"").append(System.getProperty("java.vm.name")).append(' ')
+            .append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"cores\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"iterationMillis\": ").append(iterationMillis).append(",\n");
+        json.append("  \"forks\": ").append(forks).append(",\n");
+        json.append("  \"results\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            // One result per line, which is what compare reads back
+            json.append(String.format(Locale.ROOT,
+                "    {\"id\": \"%s\", \"benchmark\": \"%s\", \"params\": \"%s\", \"threads\": %d, "
+                    + "\"unit\": \"ops/s\", \"score\": %.1f, \"error\": %.1f, \"nsPerOp\": %.2f}",
+                result.bench.id(), result.bench.name, result.bench.params, result.bench.threads,
+                result.score, result.error, result.nanosPerOp()));
+            json.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+        return json.toString();
+    }
+    
+    private static final Pattern RESULT_LINE =
+        Pattern.compile("\"id\": \"([^\"]*)\".*\"score\": ([0-9.eE+-]+)");
+    
+    // Prints the change against an earlier run's JSON file
+    private static void compare(List<Result> results, String baselineFile) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(baselineFile), StandardCharsets.UTF_8)) {
+            Matcher m = RESULT_LINE.matcher(line);
+            if (m.find()) {
+                baseline.put(m.group(1), Double.parseDouble(m.group(2)));
+            }
+        }
+        System.out.println();
+        System.out.println("Compared with " + baselineFile + ":");
+        for (Result result : results) {
+            Double before = baseline.get(result.bench.id());
+            if (before == null || before == 0) {
+                System.out.printf("%-32s %14s%n", result.bench.id(), "new");
+            } else {
+                System.out.printf("%-32s %+13.1f%%%n", result.bench.id(), percent(result.score - before, before));
+            }
+        }
+    }
+    
+    private static double percent(double part, double whole) {
+        return whole == 0 ? 0 : part * 100 / whole;
+    }
+}
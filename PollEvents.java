@@ -0,0 +1,85 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events. They cost nothing until a recording enables them,
+// e.g. java -XX:StartFlightRecording:filename=polls.jfr OnlinePollingSystem
+class PollEvents {
+    private PollEvents() {
+    }
+    
+    // Only votes sampled by PollMetrics are timed, so this is a 1-in-64 sample
+    @Name("polls.Vote")
+    @Label("Vote")
+    @Category("Online Polling System")
+    @Description("A sampled vote through the registry, including journaling, or a poll's votes summed by the pipeline")
+    @StackTrace(false)
+    static class Vote extends Event {
+        @Label("Poll Id")
+        long pollId;
+        
+        // -1 for votes the pipeline summed over several options
+        @Label("Option")
+        int option;
+        
+        @Label("Votes")
+        long votes;
+        
+        @Label("Result")
+        String result;
+    }
+    
+    @Name("polls.PollCreated")
+    @Label("Poll Created")
+    @Category("Online Polling System")
+    @StackTrace(false)
+    static class PollCreated extends Event {
+        @Label("Poll Id")
+        long pollId;
+        
+        @Label("Options")
+        int options;
+        
+        @Label("Voter Filter")
+        String voterFilter;
+        
+        @Label("Ballots")
+        String ballots;
+        
+        @Label("Write-ins")
+        boolean writeIns;
+    }
+    
+    @Name("polls.PanelRefresh")
+    @Label("Panel Refresh")
+    @Category({"Online Polling System", "Swing"})
+    @Description("Rebuild of the vote or results screen on the Event Dispatch Thread")
+    @StackTrace(false)
+    static class PanelRefresh extends Event {
+        @Label("Panel")
+        String panel;
+        
+        @Label("Rows")
+        int rows;
+    }
+    
+    @Name("polls.EdtStall")
+    @Label("EDT Stall")
+    @Category({"Online Polling System", "Swing"})
+    @Description("An AWT event that held the Event Dispatch Thread past the threshold")
+    @Threshold("100 ms")
+    @Enabled(true)
+    @StackTrace(false)
+    static class EdtStall extends Event {
+        @Label("Event")
+        String event;
+        
+        @Label("Stack While Stalled")
+        String stack;
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Streaming export of every poll's results, as CSV or JSON lines in the
+// formats PollImporter reads: a poll row keyed by the poll's id, then a
+// votes row for each option with votes. Importing the file elsewhere
+// recreates the polls with the same counts.
+//
+// Polls are written one at a time straight to a buffered file. Polls still
+// only in the mapped snapshot are read from it without being loaded, so an
+// export never holds more than one poll's results. Counts are cluster-wide
+// and ranked polls export their first preferences; ballots, voter ids and
+// write-ins not made options are left out.
+//
+//   java PollExporter FILE [--format csv|jsonl] [--data-dir DIR]
+class PollExporter {
+    private static final int BUFFER_BYTES = 1 << 16;
+    
+    private PollExporter() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        PollImporter.Format format = null;
+        String dataDir = "polls-data";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format": format = PollImporter.Format.fromName(args[++i]); break;
+                case "--data-dir": dataDir = args[++i]; break;
+                default:
+                    if (file != null || args[i].startsWith("--")) {
+                        System.err.println("Unknown argument: " + args[i]);
+                        System.exit(2);
+                    }
+                    file = args[i];
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: java PollExporter FILE [--format csv|jsonl] [--data-dir DIR]");
+            System.exit(2);
+        }
+        
+        Path path = Paths.get(file);
+        PollRegistry registry = new PollRegistry();
+        VoteJournal journal = VoteJournal.open(Paths.get(dataDir), registry);
+        long start = System.nanoTime();
+        int count = export(registry, path, format != null ? format : PollImporter.Format.of(path));
+        System.out.printf("%d polls written to %s in %.2f s%n", count, path, (System.nanoTime() - start) / 1e9);
+        journal.close();
+        System.exit(0);
+    }
+    
+    // Writes the polls registered when the export starts; returns how many
+    public static int export(PollRegistry registry, Path file, PollImporter.Format format) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), BUFFER_BYTES)) {
+            return export(registry, out, format);
+        }
+    }
+    
+    public static int export(PollRegistry registry, Writer out, PollImporter.Format format) throws IOException {
+        CompactPollStore store = registry.getStore();
+        StringBuilder row = new StringBuilder();
+        int size = registry.size();
+        for (int i = 0; i < size; i++) {
+            Poll poll = registry.peekAt(i);
+            long id;
+            String question;
+            List<String> options;
+            long[] counts;
+            if (poll != null) {
+                PollSnapshot results = poll.snapshot();
+                id = poll.getId();
+                question = poll.getQuestion();
+                options = results.getOptions();
+                counts = new long[results.getOptionCount()];
+                for (int j = 0; j < counts.length; j++) {
+                    counts[j] = results.getVotes(j);
+                }
+            } else {
+                List<String> texts = store.texts(i);
+                id = store.idAt(i);
+                question = texts.get(0);
+                options = texts.subList(1, texts.size());
+                counts = store.counts(i);
+            }
+            
+            row.setLength(0);
+            if (format == PollImporter.Format.CSV) {
+                row.append("poll,").append(id).append(',');
+                appendCsv(row, question);
+                for (String option : options) {
+                    row.append(',');
+                    appendCsv(row, option);
+                }
+                row.append('\n');
+                for (int j = 0; j < counts.length; j++) {
+                    if (counts[j] != 0) {
+                        row.append("votes,").append(id).append(',').append(j).append(',').append(counts[j]).append('\n');
+                    }
+                }
+            } else {
+                row.append("{\"type\":\"poll\",\"key\":\"").append(id).append("\",\"question\":");
+                appendJson(row, question);
+                row.append(",\"options\":[");
+                for (int j = 0; j < options.size(); j++) {
+                    if (j > 0) {
+                        row.append(',');
+                    }
+                    appendJson(row, options.get(j));
+                }
+                row.append("]}\n");
+                for (int j = 0; j < counts.length; j++) {
+                    if (counts[j] != 0) {
+                        row.append("{\"type\":\"votes\",\"poll\":\"").append(id).append("\",\"option\":").append(j)
+                            .append(",\"count\":").append(counts[j]).append("}\n");
+                    }
+                }
+            }
+            out.append(row);
+        }
+        return size;
+    }
+    
+    // Quoted when needed. A record must stay on one line, so line breaks
+    // become spaces; JSON lines keep them escaped.
+    private static void appendCsv(StringBuilder row, String value) {
+        String text = value.replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
+        boolean quote = text.isEmpty() || !text.equals(text.trim())
+            || text.indexOf(',') >= 0 || text.indexOf('"') >= 0;
+        if (!quote) {
+            row.append(text);
+            return;
+        }
+        row.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        row.append('"');
+    }
+    
+    private static void appendJson(StringBuilder row, String value) {
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': row.append("\\\""); break;
+                case '\\': row.append("\\\\"); break;
+                case '\n': row.append("\\n"); break;
+                case '\r': row.append("\\r"); break;
+                case '\t': row.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        row.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        row.append(c);
+                    }
+            }
+        }
+        row.append('"');
+    }
+}
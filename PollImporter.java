@@ -0,0 +1,904 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Streaming bulk import of polls and votes from CSV or JSON lines.
+//
+//   CSV (fields may be quoted as in RFC 4180, but a record is one line):
+//     poll,KEY,QUESTION,OPTION,OPTION[,OPTION...]
+//     vote,POLL,OPTION[,VOTER]
+//     votes,POLL,OPTION,COUNT
+//   JSON lines, one object per line with the same fields:
+//     {"type":"poll","key":"k1","question":"...","options":["A","B"]}
+//     {"type":"vote","poll":"k1","option":0,"voter":"42"}
+//     {"type":"votes","poll":"k1","option":1,"count":1200}
+//
+// POLL is the KEY of a poll row earlier in the file, or else the id of a
+// poll already registered; OPTION is an option index. Blank lines and lines
+// starting with # are skipped. PollExporter writes the same formats.
+//
+// The file is read in CHUNK_BYTES blocks cut at line ends. Worker threads
+// parse blocks in parallel, summing each block's anonymous votes per poll
+// and option, and the reading thread applies finished blocks in file order:
+// a block's polls are created first with one journal flush, then its votes
+// go in as one PollRegistry.addVotes call per poll. Votes that carry a voter
+// id are checked one at a time. At most two blocks per worker are in flight
+// and their buffers are reused, so memory stays flat whatever the file size.
+// A line that does not fit in one block is skipped and counted as malformed.
+//
+//   java PollImporter FILE [--format csv|jsonl] [--data-dir DIR | --no-persist]
+//                     [--threads N] [--offheap-counts]
+class PollImporter {
+    static final int CHUNK_BYTES = 1 << 20;
+    private static final int MAX_ERRORS = 100;
+    private static final byte[] VOTE_PREFIX = "vote,".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VOTES_PREFIX = "votes,".getBytes(StandardCharsets.US_ASCII);
+    
+    enum Format {
+        CSV, JSONL;
+        
+        // By extension: .jsonl, .ndjson and .json are JSON lines, anything else CSV
+        static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json") ? JSONL : CSV;
+        }
+        
+        static Format fromName(String name) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "csv": return CSV;
+                case "jsonl": return JSONL;
+                default: throw new IllegalArgumentException("Unknown format: " + name);
+            }
+        }
+    }
+    
+    static final class Result {
+        final long lines;
+        final int polls;
+        final long votes;
+        // Rows that could not be parsed plus votes the registry refused
+        final long rejected;
+        // The first MAX_ERRORS problems, with their line numbers
+        final List<String> errors;
+        final long elapsedNanos;
+        
+        Result(long lines, int polls, long votes, long rejected, List<String> errors, long elapsedNanos) {
+            this.lines = lines;
+            this.polls = polls;
+            this.votes = votes;
+            this.rejected = rejected;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+    
+    // One parsed block, with line numbers counted from its first line
+    private static final class Batch {
+        final byte[] buffer;
+        int lines;
+        final ArrayList<PollRow> polls = new ArrayList<>();
+        // Anonymous votes by poll reference, in order of first appearance
+        final LinkedHashMap<String, Tally> tallies = new LinkedHashMap<>();
+        final ArrayList<VoterVote> voterVotes = new ArrayList<>();
+        // Option counts of the polls created by blocks already applied, and
+        // of those this block creates, for checking votes as they are parsed
+        final Map<String, Integer> appliedOptions;
+        final HashMap<String, Integer> declaredOptions = new HashMap<>();
+        // The last poll reference seen by fastVote, since votes come in runs
+        byte[] lastKey;
+        Tally lastTally;
+        int lastLimit;
+        final ArrayList<String> errors = new ArrayList<>();
+        final ArrayList<Integer> errorLines = new ArrayList<>();
+        long rejected;
+        
+        Batch(byte[] buffer, Map<String, Integer> appliedOptions) {
+            this.buffer = buffer;
+            this.appliedOptions = appliedOptions;
+        }
+        
+        // The number of options of the poll a key names, or -1 if it is not
+        // known yet: a poll registered before the import, or created by a
+        // block still being parsed or applied
+        int optionLimit(String key) {
+            Integer options = appliedOptions.get(key);
+            if (options == null) {
+                options = declaredOptions.get(key);
+            }
+            return options == null ? -1 : options;
+        }
+        
+        void error(int line, String message) {
+            rejected++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(message);
+                errorLines.add(line);
+            }
+        }
+    }
+    
+    private static final class PollRow {
+        final int line;
+        final String key;
+        final String question;
+        final ArrayList<String> options;
+        
+        PollRow(int line, String key, String question, ArrayList<String> options) {
+            this.line = line;
+            this.key = key;
+            this.question = question;
+            this.options = options;
+        }
+    }
+    
+    private static final class Tally {
+        final int line;
+        long[] counts = new long[4];
+        // Options past counts for a poll of unknown size, checked when the
+        // block is applied; one entry at most per line, so the array is never
+        // sized from an option index in the file
+        HashMap<Integer, Long> beyond;
+        
+        Tally(int line) {
+            this.line = line;
+        }
+        
+        // limit is the poll's number of options, which option is below, or -1
+        void add(int option, long count, int limit) {
+            if (option >= counts.length && limit > option) {
+                counts = Arrays.copyOf(counts, Math.min(limit, Math.max(option + 1, counts.length * 2)));
+            }
+            if (option < counts.length) {
+                counts[option] += count;
+            } else {
+                if (beyond == null) {
+                    beyond = new HashMap<>();
+                }
+                beyond.merge(option, count, Long::sum);
+            }
+        }
+    }
+    
+    private static final class VoterVote {
+        final int line;
+        final String poll;
+        final int option;
+        final String voter;
+        
+        VoterVote(int line, String poll, int option, String voter) {
+            this.line = line;
+            this.poll = poll;
+            this.option = option;
+            this.voter = voter;
+        }
+    }
+    
+    private final PollRegistry registry;
+    private final Format format;
+    private final int threads;
+    // File keys of the polls created so far; only touched by the reading thread
+    private final HashMap<String, Long> keys = new HashMap<>();
+    // The option count of each poll in keys, read by the workers
+    private final ConcurrentHashMap<String, Integer> keyOptions = new ConcurrentHashMap<>();
+    private long lines;
+    private int polls;
+    private long votes;
+    private long rejected;
+    private final ArrayList<String> errors = new ArrayList<>();
+    
+    PollImporter(PollRegistry registry, Format format, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread");
+        }
+        this.registry = registry;
+        this.format = format;
+        this.threads = threads;
+    }
+    
+    public static Result importFile(PollRegistry registry, Path file) throws IOException {
+        return new PollImporter(registry, Format.of(file), Runtime.getRuntime().availableProcessors()).run(file);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        Format format = null;
+        String dataDir = "polls-data";
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format": format = Format.fromName(args[++i]); break;
+                case "--data-dir": dataDir = args[++i]; break;
+                case "--no-persist": dataDir = null; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--offheap-counts": OffHeapVoteCounts.enable(); break;
+                default:
+                    if (file != null || args[i].startsWith("--")) {
+                        System.err.println("Unknown argument: " + args[i]);
+                        System.exit(2);
+                    }
+                    file = args[i];
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: java PollImporter FILE [--format csv|jsonl] [--data-dir DIR] [--threads N]");
+            System.exit(2);
+        }
+        
+        Path path = Paths.get(file);
+        PollRegistry registry = new PollRegistry();
+        VoteJournal journal = null;
+        if (dataDir != null) {
+            journal = VoteJournal.open(Paths.get(dataDir), registry);
+            registry.setJournal(journal);
+        }
+        Result result = new PollImporter(registry, format != null ? format : Format.of(path), threads).run(path);
+        System.out.print(summary(result));
+        if (journal != null) {
+            journal.close();
+        }
+        System.exit(0);
+    }
+    
+    static String summary(Result result) {
+        StringBuilder text = new StringBuilder();
+        double seconds = result.elapsedNanos / 1e9;
+        text.append(String.format("%d lines: %d polls created, %d votes added, %d rejected in %.2f s (%.0f votes/s)%n",
+            result.lines, result.polls, result.votes, result.rejected, seconds, result.votes / Math.max(seconds, 1e-9)));
+        for (String error : result.errors) {
+            text.append(error).append(System.lineSeparator());
+        }
+        if (result.rejected > result.errors.size()) {
+            text.append("...").append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+    
+    public Result run(Path file) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "poll-import");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+        ArrayDeque<byte[]> free = new ArrayDeque<>();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[CHUNK_BYTES];
+            int filled = 0;
+            boolean first = true;
+            boolean eof = false;
+            while (!eof) {
+                int read = in.readNBytes(buffer, filled, buffer.length - filled);
+                filled += read;
+                eof = filled < buffer.length;
+                int begin = 0;
+                if (first && filled >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+                    // UTF-8 byte order mark
+                    begin = 3;
+                }
+                int end = eof ? filled : lastLineEnd(buffer, filled);
+                if (end <= begin && !eof) {
+                    // One line longer than a block. Apply what came before so
+                    // the error gets its line number, then read past it.
+                    while (!inFlight.isEmpty()) {
+                        free.push(apply(await(inFlight.poll())));
+                    }
+                    lines++;
+                    error(lines, "Row is longer than " + CHUNK_BYTES + " bytes");
+                    filled = skipLine(in, buffer);
+                    first = false;
+                    continue;
+                }
+                byte[] next = free.isEmpty() ? new byte[CHUNK_BYTES] : free.pop();
+                if (next.length < filled - end) {
+                    next = new byte[buffer.length];
+                }
+                System.arraycopy(buffer, end, next, 0, filled - end);
+                byte[] block = buffer;
+                int from = begin;
+                int to = end;
+                inFlight.add(workers.submit(() -> parse(block, from, to)));
+                first = false;
+                filled -= end;
+                buffer = next;
+                if (inFlight.size() >= 2 * threads) {
+                    free.push(apply(await(inFlight.poll())));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                apply(await(inFlight.poll()));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return new Result(lines, polls, votes, rejected, errors, System.nanoTime() - start);
+    }
+    
+    // Reads to the end of the current line; returns the number of bytes read
+    // after it, moved to the front of the buffer
+    private static int skipLine(InputStream in, byte[] buffer) throws IOException {
+        while (true) {
+            int read = in.readNBytes(buffer, 0, buffer.length);
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    System.arraycopy(buffer, i + 1, buffer, 0, read - i - 1);
+                    return read - i - 1;
+                }
+            }
+            if (read < buffer.length) {
+                return 0;
+            }
+        }
+    }
+    
+    private static int lastLineEnd(byte[] buffer, int filled) {
+        for (int i = filled - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+    
+    private static Batch await(Future<Batch> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not parse import block", e.getCause());
+        }
+    }
+    
+    // Runs on a worker
+    private Batch parse(byte[] block, int from, int to) {
+        Batch batch = new Batch(block, keyOptions);
+        ArrayList<String> fields = new ArrayList<>();
+        int line = 0;
+        int start = from;
+        while (start < to) {
+            int stop = start;
+            while (stop < to && block[stop] != '\n') {
+                stop++;
+            }
+            int next = stop + 1;
+            if (stop > start && block[stop - 1] == '\r') {
+                stop--;
+            }
+            line++;
+            if (format == Format.CSV && fastVote(batch, line, block, start, stop)) {
+                start = next;
+                continue;
+            }
+            if (stop > start && block[start] != '#') {
+                String text = new String(block, start, stop - start, StandardCharsets.UTF_8);
+                if (!text.isBlank()) {
+                    try {
+                        if (format == Format.CSV) {
+                            parseCsv(batch, line, text, fields);
+                        } else {
+                            parseJson(batch, line, text);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        batch.error(line, e.getMessage());
+                    }
+                }
+            }
+            start = next;
+        }
+        batch.lines = line;
+        return batch;
+    }
+    
+    // Most rows of a large import are plain vote rows; this counts them
+    // straight from the bytes. Returns false, having done nothing, for any
+    // other row, which then goes through parseCsv.
+    private static boolean fastVote(Batch batch, int line, byte[] block, int start, int stop) {
+        int p;
+        boolean counted;
+        if (startsWith(block, start, stop, VOTES_PREFIX)) {
+            p = start + VOTES_PREFIX.length;
+            counted = true;
+        } else if (startsWith(block, start, stop, VOTE_PREFIX)) {
+            p = start + VOTE_PREFIX.length;
+            counted = false;
+        } else {
+            return false;
+        }
+        int keyStart = p;
+        boolean ascii = true;
+        while (p < stop && block[p] != ',') {
+            if (block[p] == '"' || block[p] == ' ') {
+                return false;
+            }
+            ascii &= block[p] >= 0;
+            p++;
+        }
+        int keyEnd = p;
+        if (keyEnd == keyStart || p == stop) {
+            return false;
+        }
+        p++;
+        long option = 0;
+        int digits = p;
+        while (p < stop && block[p] >= '0' && block[p] <= '9' && p - digits < 9) {
+            option = option * 10 + (block[p++] - '0');
+        }
+        if (p == digits) {
+            return false;
+        }
+        long count = 1;
+        if (counted) {
+            if (p == stop || block[p] != ',') {
+                return false;
+            }
+            p++;
+            count = 0;
+            digits = p;
+            while (p < stop && block[p] >= '0' && block[p] <= '9' && p - digits < 18) {
+                count = count * 10 + (block[p++] - '0');
+            }
+            if (p == digits) {
+                return false;
+            }
+        }
+        // A voter id or anything else left goes the slow way
+        if (p != stop) {
+            return false;
+        }
+        Tally tally = batch.lastTally;
+        if (tally == null || !Arrays.equals(block, keyStart, keyEnd, batch.lastKey, 0, batch.lastKey.length)) {
+            String key = new String(block, keyStart, keyEnd - keyStart,
+                ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            tally = batch.tallies.get(key);
+            if (tally == null) {
+                tally = new Tally(line);
+                batch.tallies.put(key, tally);
+            }
+            batch.lastTally = tally;
+            batch.lastKey = Arrays.copyOfRange(block, keyStart, keyEnd);
+            batch.lastLimit = batch.optionLimit(key);
+        }
+        if (batch.lastLimit >= 0 && option >= batch.lastLimit) {
+            String key = new String(block, keyStart, keyEnd - keyStart, StandardCharsets.UTF_8);
+            batch.error(line, "Poll " + key + " has only " + batch.lastLimit + " options");
+        } else if (count > 0) {
+            tally.add((int) option, count, batch.lastLimit);
+        }
+        return true;
+    }
+    
+    private static boolean startsWith(byte[] block, int start, int stop, byte[] prefix) {
+        return stop - start >= prefix.length && Arrays.equals(block, start, start + prefix.length, prefix, 0, prefix.length);
+    }
+    
+    private static void parseCsv(Batch batch, int line, String text, ArrayList<String> fields) {
+        splitCsv(text, fields);
+        String type = fields.get(0).trim();
+        if (type.equals("poll")) {
+            if (fields.size() < 3) {
+                throw new IllegalArgumentException("A poll row needs a key, a question and options");
+            }
+            addPoll(batch, line, fields.get(1).trim(), fields.get(2), fields.subList(3, fields.size()));
+        } else if (type.equals("vote")) {
+            if (fields.size() < 3 || fields.size() > 4) {
+                throw new IllegalArgumentException("A vote row needs a poll, an option and optionally a voter");
+            }
+            addVote(batch, line, fields.get(1).trim(), parseOption(fields.get(2)), 1,
+                fields.size() == 4 ? fields.get(3).trim() : null);
+        } else if (type.equals("votes")) {
+            if (fields.size() != 4) {
+                throw new IllegalArgumentException("A votes row needs a poll, an option and a count");
+            }
+            addVote(batch, line, fields.get(1).trim(), parseOption(fields.get(2)), parseCount(fields.get(3)), null);
+        } else {
+            throw new IllegalArgumentException("Unknown row type: " + type);
+        }
+    }
+    
+    private static void parseJson(Batch batch, int line, String text) {
+        Map<String, Object> row = new JsonLine(text).parseObject();
+        String type = jsonString(row, "type", true);
+        if (type.equals("poll")) {
+            Object options = row.get("options");
+            if (!(options instanceof List)) {
+                throw new IllegalArgumentException("A poll needs a list of options");
+            }
+            List<String> texts = new ArrayList<>();
+            for (Object option : (List<?>) options) {
+                texts.add(String.valueOf(option));
+            }
+            addPoll(batch, line, jsonString(row, "key", true), jsonString(row, "question", true), texts);
+        } else if (type.equals("vote")) {
+            addVote(batch, line, jsonString(row, "poll", true), parseOption(jsonString(row, "option", true)), 1,
+                jsonString(row, "voter", false));
+        } else if (type.equals("votes")) {
+            addVote(batch, line, jsonString(row, "poll", true), parseOption(jsonString(row, "option", true)),
+                parseCount(jsonString(row, "count", true)), null);
+        } else {
+            throw new IllegalArgumentException("Unknown row type: " + type);
+        }
+    }
+    
+    private static String jsonString(Map<String, Object> row, String field, boolean required) {
+        Object value = row.get(field);
+        if (value == null) {
+            if (required) {
+                throw new IllegalArgumentException("Missing field: " + field);
+            }
+            return null;
+        }
+        if (value instanceof List) {
+            throw new IllegalArgumentException("Field " + field + " must not be a list");
+        }
+        return value.toString().trim();
+    }
+    
+    private static void addPoll(Batch batch, int line, String key, String question, List<String> optionTexts) {
+        ArrayList<String> options = new ArrayList<>();
+        for (String option : optionTexts) {
+            if (!option.trim().isEmpty()) {
+                options.add(option.trim());
+            }
+        }
+        if (key.isEmpty() || question.trim().isEmpty()) {
+            throw new IllegalArgumentException("A poll needs a key and a question");
+        }
+        if (options.size() < 2) {
+            throw new IllegalArgumentException("A poll needs at least 2 options");
+        }
+        batch.polls.add(new PollRow(line, key, question.trim(), options));
+        batch.declaredOptions.putIfAbsent(key, options.size());
+    }
+    
+    private static void addVote(Batch batch, int line, String poll, int option, long count, String voter) {
+        if (poll.isEmpty()) {
+            throw new IllegalArgumentException("A vote needs a poll");
+        }
+        int limit = batch.optionLimit(poll);
+        if (limit >= 0 && option >= limit) {
+            throw new IllegalArgumentException("Poll " + poll + " has only " + limit + " options");
+        }
+        if (voter != null && !voter.isEmpty()) {
+            batch.voterVotes.add(new VoterVote(line, poll, option, voter));
+        } else if (count > 0) {
+            batch.tallies.computeIfAbsent(poll, p -> new Tally(line)).add(option, count, limit);
+        }
+    }
+    
+    private static int parseOption(String text) {
+        int option;
+        try {
+            option = Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an option index: " + text);
+        }
+        if (option < 0) {
+            throw new IllegalArgumentException("Negative option: " + option);
+        }
+        return option;
+    }
+    
+    private static long parseCount(String text) {
+        long count;
+        try {
+            count = Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a count: " + text);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count: " + count);
+        }
+        return count;
+    }
+    
+    // Fields of one CSV record; quoted fields may hold commas and doubled quotes
+    static void splitCsv(String text, ArrayList<String> fields) {
+        fields.clear();
+        int n = text.length();
+        int i = 0;
+        while (true) {
+            if (i < n && text.charAt(i) == '"') {
+                StringBuilder field = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= n) {
+                        throw new IllegalArgumentException("Unterminated quoted field");
+                    }
+                    char c = text.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < n && text.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < n && text.charAt(i) != ',') {
+                    throw new IllegalArgumentException("Text after a quoted field");
+                }
+                fields.add(field.toString());
+            } else {
+                int comma = text.indexOf(',', i);
+                if (comma < 0) {
+                    comma = n;
+                }
+                fields.add(text.substring(i, comma));
+                i = comma;
+            }
+            if (i >= n) {
+                return;
+            }
+            // Skip the comma; a trailing one ends with an empty field
+            i++;
+            if (i == n) {
+                fields.add("");
+                return;
+            }
+        }
+    }
+    
+    // Runs on the reading thread, in file order; returns the block's buffer
+    private byte[] apply(Batch batch) {
+        long base = lines;
+        for (int i = 0; i < batch.errors.size(); i++) {
+            error(base + batch.errorLines.get(i), batch.errors.get(i));
+        }
+        rejected += batch.rejected - batch.errors.size();
+        
+        if (!batch.polls.isEmpty()) {
+            List<Poll> created = new ArrayList<>();
+            List<String> createdKeys = new ArrayList<>();
+            HashSet<String> seen = new HashSet<>();
+            for (PollRow row : batch.polls) {
+                if (keys.containsKey(row.key) || !seen.add(row.key)) {
+                    error(base + row.line, "Poll key " + row.key + " is used twice");
+                    continue;
+                }
+                created.add(new Poll(row.question, row.options));
+                createdKeys.add(row.key);
+            }
+            long[] ids = registry.addAll(created);
+            for (int i = 0; i < ids.length; i++) {
+                keys.put(createdKeys.get(i), ids[i]);
+                keyOptions.put(createdKeys.get(i), created.get(i).getOptions().size());
+            }
+            polls += ids.length;
+        }
+        
+        for (Map.Entry<String, Tally> entry : batch.tallies.entrySet()) {
+            String key = entry.getKey();
+            Tally tally = entry.getValue();
+            long total = 0;
+            for (long count : tally.counts) {
+                total += count;
+            }
+            if (tally.beyond != null) {
+                for (long count : tally.beyond.values()) {
+                    total += count;
+                }
+            }
+            long id = resolve(key);
+            Poll poll = id < 0 ? null : registry.get(id);
+            if (poll == null) {
+                rejectVotes(total, base + tally.line, "No poll " + key);
+                continue;
+            }
+            int optionCount = poll.getOptions().size();
+            long[] deltas = tally.counts;
+            long extra = 0;
+            if (tally.beyond != null) {
+                // Only now is the poll's size known; it bounds the array
+                deltas = Arrays.copyOf(deltas, Math.max(deltas.length, optionCount));
+                for (Map.Entry<Integer, Long> option : tally.beyond.entrySet()) {
+                    if (option.getKey() < optionCount) {
+                        deltas[option.getKey()] += option.getValue();
+                    } else {
+                        extra += option.getValue();
+                    }
+                }
+            }
+            int used = Math.min(deltas.length, optionCount);
+            for (int j = used; j < deltas.length; j++) {
+                extra += deltas[j];
+            }
+            while (used > 0 && deltas[used - 1] == 0) {
+                used--;
+            }
+            if (extra > 0) {
+                rejectVotes(extra, base + tally.line, "Poll " + key + " has only " + optionCount + " options");
+                total -= extra;
+                if (total == 0) {
+                    continue;
+                }
+            }
+            if (registry.addVotes(id, Arrays.copyOf(deltas, used)) == VoteResult.ACCEPTED) {
+                votes += total;
+            } else {
+                rejectVotes(total, base + tally.line, "Poll " + key + " only takes votes one at a time with a voter id or ballot");
+            }
+        }
+        
+        for (VoterVote vote : batch.voterVotes) {
+            long id = resolve(vote.poll);
+            VoteResult result = id < 0 ? VoteResult.INVALID : registry.vote(id, vote.option, vote.voter);
+            if (result == VoteResult.ACCEPTED) {
+                votes++;
+            } else if (result == VoteResult.DUPLICATE) {
+                error(base + vote.line, "Voter " + vote.voter + " has already voted on poll " + vote.poll);
+            } else {
+                error(base + vote.line, "Invalid poll, option or voter id");
+            }
+        }
+        
+        lines += batch.lines;
+        return batch.buffer;
+    }
+    
+    // A key from this file, or the id of a poll already registered; -1 if neither
+    private long resolve(String key) {
+        Long id = keys.get(key);
+        if (id != null) {
+            return id;
+        }
+        try {
+            long existing = Long.parseLong(key);
+            return registry.indexOf(existing) >= 0 ? existing : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private void rejectVotes(long count, long line, String message) {
+        rejected += count - 1;
+        error(line, message);
+    }
+    
+    private void error(long line, String message) {
+        rejected++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add("Line " + line + ": " + message);
+        }
+    }
+    
+    // Just enough JSON for one flat object per line: string, number, boolean
+    // and null values, and lists of them. Numbers and booleans are kept as
+    // their text.
+    private static final class JsonLine {
+        private final String text;
+        private int pos;
+        
+        JsonLine(String text) {
+            this.text = text;
+        }
+        
+        Map<String, Object> parseObject() {
+            Map<String, Object> object = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipSpace();
+                    String key = parseString();
+                    expect(':');
+                    object.put(key, parseValue(true));
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new IllegalArgumentException("Expected , or } at column " + pos);
+                    }
+                }
+            }
+            if (peek() != 0) {
+                throw new IllegalArgumentException("Text after the object at column " + pos);
+            }
+            return object;
+        }
+        
+        private Object parseValue(boolean allowList) {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '[' && allowList) {
+                pos++;
+                List<Object> list = new ArrayList<>();
+                if (peek() == ']') {
+                    pos++;
+                    return list;
+                }
+                while (true) {
+                    list.add(parseValue(false));
+                    char d = next();
+                    if (d == ']') {
+                        return list;
+                    }
+                    if (d != ',') {
+                        throw new IllegalArgumentException("Expected , or ] at column " + pos);
+                    }
+                }
+            }
+            int start = pos;
+            while (pos < text.length() && "-+.0123456789eEtruefalsn".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Unexpected " + (c == 0 ? "end of line" : "'" + c + "'") + " at column " + pos);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+        
+        private String parseString() {
+            if (next() != '"') {
+                throw new IllegalArgumentException("Expected a string at column " + pos);
+            }
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char e = text.charAt(pos++);
+                switch (e) {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("Bad \\u escape");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: value.append(e);
+                }
+            }
+        }
+        
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("Expected " + c + " at column " + pos);
+            }
+        }
+        
+        // The next character that is not white space, consumed; 0 at the end
+        private char next() {
+            char c = peek();
+            if (c != 0) {
+                pos++;
+            }
+            return c;
+        }
+        
+        private char peek() {
+            skipSpace();
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+        
+        private void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+// List model that reads polls straight from the registry, or shows a fixed
+// list of search results while a filter is set. Polls are never removed, so
+// refreshing only announces rows appended since the last call.
+class PollListModel extends AbstractListModel<Poll> {
+    private final PollRegistry registry;
+    private int size;
+    private List<Poll> filter;
+    
+    public PollListModel(PollRegistry registry) {
+        this.registry = registry;
+        this.size = registry.size();
+    }
+    
+    // Must be called on the Event Dispatch Thread
+    public void refresh() {
+        if (filter != null) {
+            return;
+        }
+        int current = registry.size();
+        if (current > size) {
+            int first = size;
+            size = current;
+            fireIntervalAdded(this, first, current - 1);
+        }
+    }
+    
+    // Shows only the given polls; null goes back to showing every poll
+    public void setFilter(List<Poll> polls) {
+        int oldSize = size;
+        filter = polls;
+        size = polls != null ? polls.size() : registry.size();
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (size > 0) {
+            fireIntervalAdded(this, 0, size - 1);
+        }
+    }
+    
+    // Row currently showing the poll, or -1
+    public int rowOf(long pollId) {
+        if (filter == null) {
+            int index = registry.indexOf(pollId);
+            return index < size ? index : -1;
+        }
+        for (int i = 0; i < filter.size(); i++) {
+            if (filter.get(i).getId() == pollId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public Poll getElementAt(int index) {
+        return filter != null ? filter.get(index) : registry.getAt(index);
+    }
+}
@@ -0,0 +1,23 @@
+// Notified from the voting thread, so implementations must be cheap and
+// non-blocking
+interface PollListener {
+    // A poll's counts changed; fires once per burst, see Poll.clearChanged
+    void pollChanged(Poll poll);
+    
+    // A poll received its first vote of a new second
+    default void pollActive(Poll poll) {
+    }
+    
+    // This node's counts of a poll changed; fires once until
+    // Poll.takeUnpublished is called, so no vote goes unreported
+    default void pollCounted(Poll poll) {
+    }
+    
+    // A poll was registered; called with the registry locked
+    default void pollAdded(Poll poll) {
+    }
+    
+    // A write-in became option number option; called with the registry locked
+    default void optionAdded(Poll poll, int option) {
+    }
+}
@@ -0,0 +1,152 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Live counters behind the PollMetrics MBean. Every accepted vote bumps a
+// striped counter; only one vote in SAMPLE_RATE reads the clock, so timing
+// stays off the common path. Heap use is estimated by walking the polls when
+// the attribute is read, never on the vote path.
+class PollMetrics implements PollMetricsMBean {
+    static final int SAMPLE_RATE = 64;
+    static final String OBJECT_NAME = "OnlinePollingSystem:type=PollMetrics";
+    
+    private final PollRegistry registry;
+    private final LongAdder votes = new LongAdder();
+    private final LatencyHistogram voteLatency = new LatencyHistogram();
+    private final LongAdder edtStalls = new LongAdder();
+    private final AtomicLong maxEdtStallNanos = new AtomicLong();
+    private final ScheduledExecutorService sampler;
+    private volatile double votesPerSecond;
+    private long lastTotal;
+    private long lastNanos = System.nanoTime();
+    
+    public PollMetrics(PollRegistry registry) {
+        this.registry = registry;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "poll-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(this::sampleRate, 1, 1, TimeUnit.SECONDS);
+    }
+    
+    // Exposes the metrics on the platform MBean server, e.g. to jconsole
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+    
+    // Decides whether the calling vote is timed
+    boolean sample() {
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE_RATE - 1)) == 0;
+    }
+    
+    void voteAccepted() {
+        votes.increment();
+    }
+    
+    void votesAccepted(long count) {
+        votes.add(count);
+    }
+    
+    void voteTimed(long nanos) {
+        voteLatency.record(nanos);
+    }
+    
+    void edtStalled(long nanos) {
+        edtStalls.increment();
+        maxEdtStallNanos.accumulateAndGet(nanos, Math::max);
+    }
+    
+    private void sampleRate() {
+        long total = votes.sum();
+        long now = System.nanoTime();
+        votesPerSecond = (total - lastTotal) * 1e9 / Math.max(1, now - lastNanos);
+        lastTotal = total;
+        lastNanos = now;
+    }
+    
+    @Override
+    public double getVotesPerSecond() {
+        return votesPerSecond;
+    }
+    
+    @Override
+    public long getTotalVotes() {
+        return votes.sum();
+    }
+    
+    @Override
+    public long getVoteLatencyP50() {
+        return voteLatency.percentile(50);
+    }
+    
+    @Override
+    public long getVoteLatencyP90() {
+        return voteLatency.percentile(90);
+    }
+    
+    @Override
+    public long getVoteLatencyP99() {
+        return voteLatency.percentile(99);
+    }
+    
+    @Override
+    public long getVoteLatencyP999() {
+        return voteLatency.percentile(99.9);
+    }
+    
+    @Override
+    public long getVoteLatencyMax() {
+        return voteLatency.max();
+    }
+    
+    @Override
+    public long getSampledVotes() {
+        return voteLatency.getCount();
+    }
+    
+    @Override
+    public int getPollCount() {
+        return registry.size();
+    }
+    
+    @Override
+    public long getPollDataBytes() {
+        long bytes = 0;
+        int size = registry.size();
+        for (int i = 0; i < size; i++) {
+            // Stored polls not read yet live in the mapped file, not the heap
+            Poll poll = registry.peekAt(i);
+            if (poll != null) {
+                bytes += poll.estimatedBytes();
+            }
+        }
+        return bytes;
+    }
+    
+    @Override
+    public long getOffHeapCountBytes() {
+        return OffHeapVoteCounts.reservedBytes();
+    }
+    
+    @Override
+    public long getEdtStalls() {
+        return edtStalls.sum();
+    }
+    
+    @Override
+    public long getMaxEdtStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxEdtStallNanos.get());
+    }
+    
+    @Override
+    public void resetLatency() {
+        voteLatency.reset();
+    }
+}
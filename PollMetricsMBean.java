@@ -0,0 +1,31 @@
+// Management interface for PollMetrics; JMX requires it to be public.
+// Latencies are in nanoseconds and cover votes through PollRegistry.vote.
+public interface PollMetricsMBean {
+    double getVotesPerSecond();
+    
+    long getTotalVotes();
+    
+    long getVoteLatencyP50();
+    
+    long getVoteLatencyP90();
+    
+    long getVoteLatencyP99();
+    
+    long getVoteLatencyP999();
+    
+    long getVoteLatencyMax();
+    
+    long getSampledVotes();
+    
+    int getPollCount();
+    
+    long getPollDataBytes();
+    
+    long getOffHeapCountBytes();
+    
+    long getEdtStalls();
+    
+    long getMaxEdtStallMillis();
+    
+    void resetLatency();
+}
@@ -0,0 +1,791 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// In-process registry of all polls, shared by the Swing GUI and the HTTP
+// server. Every poll gets a stable 64-bit id on registration; polls are
+// found by id through a concurrent hash index, by creation order through
+// getAt(), and by words of their question and options through search().
+// Registration is serialized; reads never lock, so voters, renderers and
+// searches can run on any thread while new polls are being created.
+//
+// Polls saved in a CompactPollStore stay on disk until first read: their
+// slots start empty and are filled on demand, and the search index for them
+// is built by a background thread.
+class PollRegistry {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Poll[].class);
+    private static final int INDEX_BATCH = 4096;
+    // Ids are node-scoped: the node id sits above this many bits of sequence
+    static final int NODE_SHIFT = 48;
+    static final int MAX_NODE_ID = (1 << (63 - NODE_SHIFT)) - 1;
+    
+    private volatile Poll[] polls = new Poll[16];
+    private volatile int size;
+    private long nextId = 1;
+    private int nodeId;
+    // Ids of polls registered or loaded so far; stored polls not yet read are
+    // found through the store's own id index
+    private final ConcurrentHashMap<Long, Integer> positions = new ConcurrentHashMap<>();
+    private volatile CompactPollStore stored;
+    private final boolean searchable;
+    // Polls registered while stored polls are still being indexed; guarded by this
+    private List<Poll> pendingIndex;
+    // Sorted so that prefix queries are a range scan over the term dictionary
+    private final ConcurrentSkipListMap<String, IdList> tokenIndex = new ConcurrentSkipListMap<>();
+    private volatile VoteJournal journal;
+    private volatile PollMetrics metrics;
+    private final CopyOnWriteArrayList<PollListener> listeners = new CopyOnWriteArrayList<>();
+    // Installed on every poll; forwards to all registered listeners
+    private final PollListener dispatcher = new PollListener() {
+        @Override
+        public void pollChanged(Poll poll) {
+            for (PollListener listener : listeners) {
+                listener.pollChanged(poll);
+            }
+        }
+        
+        @Override
+        public void pollActive(Poll poll) {
+            for (PollListener listener : listeners) {
+                listener.pollActive(poll);
+            }
+        }
+        
+        @Override
+        public void pollCounted(Poll poll) {
+            for (PollListener listener : listeners) {
+                listener.pollCounted(poll);
+            }
+        }
+    };
+    
+    public PollRegistry() {
+        this(true);
+    }
+    
+    // Without search, no token index is kept and counts stay on the heap,
+    // since off-heap slots are never freed; for short-lived registries
+    PollRegistry(boolean searchable) {
+        this.searchable = searchable;
+    }
+    
+    // Counters for a poll built to be registered here
+    VoteCounts newCounts(int options) {
+        return searchable ? VoteCounts.create(options) : new AtomicVoteCounts(options);
+    }
+    
+    // Polls created here get ids in this node's range, so nodes sharing a
+    // cluster never hand out the same id. Set before anything is registered.
+    public synchronized void setNodeId(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID);
+        }
+        if (size != 0) {
+            throw new IllegalStateException("Node id must be set on an empty registry");
+        }
+        this.nodeId = nodeId;
+        nextId = Math.max(nextId, firstId(nodeId));
+    }
+    
+    public int getNodeId() {
+        return nodeId;
+    }
+    
+    // The node whose range an id falls in
+    static int nodeOf(long id) {
+        return (int) (id >>> NODE_SHIFT);
+    }
+    
+    private static long firstId(int node) {
+        // Sequence numbers start at 1 on every node
+        return ((long) node << NODE_SHIFT) + 1;
+    }
+    
+    // Serves the polls of a store, which become positions 0 to store.size()-1.
+    // Only for an empty registry, before anything else is registered.
+    public synchronized void attach(CompactPollStore store) {
+        if (size != 0) {
+            throw new IllegalStateException("Poll store must be attached to an empty registry");
+        }
+        int count = store.size();
+        polls = new Poll[Math.max(16, count)];
+        stored = store;
+        long lastLocal = store.floorId(nodeId == MAX_NODE_ID ? Long.MAX_VALUE : firstId(nodeId + 1));
+        if (nodeOf(lastLocal) == nodeId) {
+            nextId = Math.max(nextId, lastLocal + 1);
+        }
+        size = count;
+        if (searchable && count > 0) {
+            pendingIndex = new ArrayList<>();
+            Thread indexer = new Thread(() -> indexStored(store, count), "poll-index");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+    }
+    
+    // Every poll and vote added from now on is also written to the journal
+    public synchronized void setJournal(VoteJournal journal) {
+        this.journal = journal;
+    }
+    
+    // Returns once everything journaled so far is on disk. Votes are
+    // journaled without waiting, so whoever acknowledges a vote calls this
+    // first; concurrent callers share one fsync, see VoteJournal.sync.
+    public void awaitDurable() throws IOException {
+        VoteJournal journal = this.journal;
+        if (journal != null) {
+            journal.sync(journal.lastTicket());
+        }
+    }
+    
+    // Votes from now on are counted, and a sample of them timed
+    public void setMetrics(PollMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    // May be null
+    PollMetrics getMetrics() {
+        return metrics;
+    }
+    
+    // Assigns the next free id and returns it
+    public long add(Poll poll) {
+        long id;
+        synchronized (this) {
+            id = registerLocked(nextId, poll);
+        }
+        awaitCreated();
+        return id;
+    }
+    
+    // Adds polls in order with one journal flush for the lot instead of one
+    // each; returns their ids
+    public long[] addAll(List<Poll> batch) {
+        long[] ids = new long[batch.size()];
+        synchronized (this) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = registerLocked(nextId, batch.get(i));
+            }
+        }
+        if (ids.length > 0) {
+            awaitCreated();
+        }
+        return ids;
+    }
+    
+    // Registers a poll under an id chosen elsewhere, e.g. read back from disk
+    public long register(long id, Poll poll) {
+        synchronized (this) {
+            registerLocked(id, poll);
+        }
+        awaitCreated();
+        return id;
+    }
+    
+    // Poll definitions are rare and worth waiting for, but not with the
+    // registry locked: the fsync runs after, as for votes, so lookups and
+    // lazy loads never queue behind the disk
+    private void awaitCreated() {
+        try {
+            awaitDurable();
+        } catch (IOException e) {
+            System.err.println("Vote journal flush failed: " + e.getMessage());
+        }
+    }
+    
+    private long registerLocked(long id, Poll poll) {
+        if (indexOf(id) >= 0) {
+            throw new IllegalArgumentException("Poll id " + id + " is already registered");
+        }
+        Poll[] current = polls;
+        if (size == current.length) {
+            Poll[] grown = new Poll[current.length * 2];
+            System.arraycopy(current, 0, grown, 0, size);
+            polls = grown;
+            current = grown;
+        }
+        PollEvents.PollCreated event = new PollEvents.PollCreated();
+        event.begin();
+        poll.setId(id);
+        // Journaled first: a poll too big for the journal is not registered
+        if (journal != null) {
+            journal.appendCreate(poll, false);
+        }
+        // Polls from other nodes keep their ids without moving ours
+        if (nodeOf(id) == nodeId) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        poll.setListener(dispatcher);
+        current[size] = poll;
+        positions.put(id, size);
+        size = size + 1;
+        if (pendingIndex != null) {
+            pendingIndex.add(poll);
+        } else if (searchable) {
+            index(poll);
+        }
+        for (PollListener listener : listeners) {
+            listener.pollAdded(poll);
+        }
+        event.pollId = id;
+        event.options = poll.getOptions().size();
+        event.voterFilter = poll.requiresVoterId() ? poll.getVoterFilter().spec() : null;
+        event.ballots = poll.isRanked() ? poll.getBallots().spec() : null;
+        event.writeIns = poll.acceptsWriteIns();
+        event.commit();
+        return id;
+    }
+    
+    // Listeners hear about a poll once per burst of votes; see Poll.clearChanged
+    public void addListener(PollListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(PollListener listener) {
+        listeners.remove(listener);
+    }
+    
+    // Returns null if no poll has this id
+    public Poll get(long id) {
+        int position = indexOf(id);
+        return position < 0 ? null : getAt(position);
+    }
+    
+    // Position in creation order, or -1 if no poll has this id
+    public int indexOf(long id) {
+        Integer position = positions.get(id);
+        if (position != null) {
+            return position;
+        }
+        CompactPollStore store = stored;
+        return store == null ? -1 : store.positionOf(id);
+    }
+    
+    public Poll getAt(int index) {
+        // Read size before the array so a concurrent grow can't hide the slot
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No poll at index " + index);
+        }
+        Poll poll = (Poll) SLOTS.getAcquire(polls, index);
+        return poll != null ? poll : load(index);
+    }
+    
+    // The poll at index if it is in memory, or null if it is still only stored
+    public Poll peekAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No poll at index " + index);
+        }
+        return (Poll) SLOTS.getAcquire(polls, index);
+    }
+    
+    // The store attached at startup, or null
+    CompactPollStore getStore() {
+        return stored;
+    }
+    
+    // Materializes a stored poll; a slot is filled at most once
+    private synchronized Poll load(int index) {
+        Poll[] current = polls;
+        Poll poll = current[index];
+        if (poll == null) {
+            poll = stored.load(index, this);
+            poll.setId(stored.idAt(index));
+            poll.setListener(dispatcher);
+            positions.put(poll.getId(), index);
+            SLOTS.setRelease(current, index, poll);
+        }
+        return poll;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    // For polls open to unlimited votes
+    public boolean vote(long pollId, int optionIndex) {
+        return vote(pollId, optionIndex, null) == VoteResult.ACCEPTED;
+    }
+    
+    // voterId is required on one-vote-per-voter polls and ignored otherwise
+    public VoteResult vote(long pollId, int optionIndex, String voterId) {
+        PollMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return record(pollId, optionIndex, voterId);
+        }
+        if (!metrics.sample()) {
+            VoteResult result = record(pollId, optionIndex, voterId);
+            if (result == VoteResult.ACCEPTED) {
+                metrics.voteAccepted();
+            }
+            return result;
+        }
+        PollEvents.Vote event = new PollEvents.Vote();
+        event.begin();
+        long start = System.nanoTime();
+        VoteResult result = record(pollId, optionIndex, voterId);
+        metrics.voteTimed(System.nanoTime() - start);
+        if (result == VoteResult.ACCEPTED) {
+            metrics.voteAccepted();
+        }
+        event.pollId = pollId;
+        event.option = optionIndex;
+        event.votes = 1;
+        event.result = result.name();
+        event.commit();
+        return result;
+    }
+    
+    private VoteResult record(long pollId, int optionIndex, String voterId) {
+        Poll poll = get(pollId);
+        // Ranked polls only take whole ballots, see castBallot
+        if (poll == null || poll.isRanked() || optionIndex < 0 || optionIndex >= poll.getOptions().size()) {
+            return VoteResult.INVALID;
+        }
+        VoteJournal journal = this.journal;
+        if (poll.requiresVoterId()) {
+            long key;
+            try {
+                key = poll.voterKey(voterId);
+            } catch (IllegalArgumentException e) {
+                return VoteResult.INVALID;
+            }
+            if (!poll.recordVoter(key)) {
+                return VoteResult.DUPLICATE;
+            }
+            if (journal != null) {
+                journal.appendVoterVote(pollId, optionIndex, key);
+            }
+        } else if (journal != null) {
+            journal.appendVote(pollId, optionIndex);
+        }
+        poll.vote(optionIndex);
+        return VoteResult.ACCEPTED;
+    }
+    
+    // Adds pre-aggregated votes, deltas[i] for option i, as one journal
+    // record, e.g. from a bulk import. Polls that need voter ids or take
+    // ranked ballots only accept votes one at a time.
+    public VoteResult addVotes(long pollId, long[] deltas) {
+        return addVotes(pollId, deltas, false);
+    }
+    
+    // As addVotes, for live votes grouped by VotePipeline: they also count
+    // towards the poll's vote rates and so towards trending
+    public VoteResult castVotes(long pollId, long[] deltas) {
+        return addVotes(pollId, deltas, true);
+    }
+    
+    private VoteResult addVotes(long pollId, long[] deltas, boolean live) {
+        Poll poll = get(pollId);
+        if (poll == null || poll.isRanked() || poll.requiresVoterId() || deltas.length > poll.getOptions().size()) {
+            return VoteResult.INVALID;
+        }
+        long total = 0;
+        for (long delta : deltas) {
+            if (delta < 0) {
+                return VoteResult.INVALID;
+            }
+            total += delta;
+        }
+        VoteJournal journal = this.journal;
+        if (journal != null) {
+            journal.appendVotes(pollId, deltas);
+        }
+        if (live) {
+            poll.castVotes(deltas);
+        } else {
+            poll.addVotes(deltas);
+        }
+        PollMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.votesAccepted(total);
+        }
+        return VoteResult.ACCEPTED;
+    }
+    
+    // For ranked-choice polls: ranking lists option indexes, most preferred
+    // first, and weight must be 1 unless the poll takes weighted ballots.
+    // voterId is handled as in vote().
+    public VoteResult castBallot(long pollId, int[] ranking, int weight, String voterId) {
+        Poll poll = get(pollId);
+        if (poll == null || !poll.isRanked() || !poll.getBallots().isValid(ranking, weight)) {
+            return VoteResult.INVALID;
+        }
+        VoteJournal journal = this.journal;
+        if (poll.requiresVoterId()) {
+            long key;
+            try {
+                key = poll.voterKey(voterId);
+            } catch (IllegalArgumentException e) {
+                return VoteResult.INVALID;
+            }
+            if (!poll.recordVoter(key)) {
+                return VoteResult.DUPLICATE;
+            }
+            if (journal != null) {
+                journal.appendVoterBallot(pollId, ranking, weight, key);
+            }
+        } else if (journal != null) {
+            journal.appendBallot(pollId, ranking, weight);
+        }
+        poll.castBallot(ranking, weight);
+        PollMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.voteAccepted();
+        }
+        return VoteResult.ACCEPTED;
+    }
+    
+    // For polls that take write-ins: counts a free-text answer, exactly if
+    // it matches an option and in the poll's write-in sketch otherwise.
+    // voterId is handled as in vote().
+    public VoteResult writeIn(long pollId, String text, String voterId) {
+        Poll poll = get(pollId);
+        String answer = WriteInSketch.clean(text);
+        if (poll == null || !poll.acceptsWriteIns() || answer.isEmpty()) {
+            return VoteResult.INVALID;
+        }
+        VoteJournal journal = this.journal;
+        if (poll.requiresVoterId()) {
+            long key;
+            try {
+                key = poll.voterKey(voterId);
+            } catch (IllegalArgumentException e) {
+                return VoteResult.INVALID;
+            }
+            if (!poll.recordVoter(key)) {
+                return VoteResult.DUPLICATE;
+            }
+            if (journal != null) {
+                journal.appendVoterWriteIn(pollId, answer, key);
+            }
+        } else if (journal != null) {
+            journal.appendWriteIn(pollId, answer);
+        }
+        poll.writeIn(answer);
+        PollMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.voteAccepted();
+        }
+        return VoteResult.ACCEPTED;
+    }
+    
+    // Makes a write-in answer an exact option, starting from the votes the
+    // sketch is certain it had. Returns the option's index, the existing one
+    // if the answer already matches an option, or -1 if the poll takes no
+    // write-ins. Only the node that created a poll adds options to it, so
+    // that every node numbers them alike.
+    public int promoteWriteIn(long pollId, String text) {
+        Poll poll = get(pollId);
+        String answer = WriteInSketch.clean(text);
+        if (poll == null || !poll.acceptsWriteIns() || answer.isEmpty()) {
+            return -1;
+        }
+        if (nodeOf(pollId) != nodeId) {
+            throw new IllegalStateException("Options of poll " + pollId + " can only be added on node " + nodeOf(pollId));
+        }
+        synchronized (this) {
+            int existing = poll.optionOf(answer);
+            if (existing >= 0) {
+                return existing;
+            }
+            // Spelled as the voters wrote it
+            WriteInSketch.Entry entry = poll.getWriteIns().get(answer);
+            return addOption(poll, entry == null ? answer : entry.text);
+        }
+    }
+    
+    // Applies an option added by the node that created the poll; ignored
+    // unless it is the poll's next option
+    void addRemoteOption(long pollId, int option, String text) {
+        Poll poll = get(pollId);
+        if (poll == null || !poll.acceptsWriteIns()) {
+            return;
+        }
+        synchronized (this) {
+            if (poll.getOptions().size() == option) {
+                addOption(poll, text);
+            }
+        }
+    }
+    
+    // Called with the registry locked, which serializes every added option.
+    // Write-ins of the answer racing with this may still land in the sketch.
+    private int addOption(Poll poll, String answer) {
+        int option = poll.addOption(answer);
+        WriteInSketch.Entry entry = poll.getWriteIns().take(answer);
+        long seed = entry == null ? 0 : entry.lower;
+        if (seed > 0) {
+            poll.addVotes(option, seed);
+        }
+        if (journal != null) {
+            journal.appendOption(poll.getId(), answer, seed);
+        }
+        // Polls still waiting for the indexer get all their options indexed then
+        if (searchable && (pendingIndex == null || !pendingIndex.contains(poll))) {
+            Set<String> added = tokens(Collections.singletonList(answer));
+            List<String> texts = new ArrayList<>(poll.getOptions().subList(0, option));
+            texts.add(poll.getQuestion());
+            added.removeAll(tokens(texts));
+            index(poll.getId(), added);
+        }
+        for (PollListener listener : listeners) {
+            listener.optionAdded(poll, option);
+        }
+        return option;
+    }
+    
+    // Returns up to limit polls, in creation order, whose question or options
+    // contain every word of the query. The last word also matches as a prefix,
+    // so results narrow as the user types.
+    public List<Poll> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        List<IdList.View> required = new ArrayList<>();
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            IdList ids = tokenIndex.get(tokens.get(i));
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            required.add(ids.view());
+        }
+        List<IdList.View> terms = prefixMatches(tokens.get(tokens.size() - 1));
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        required.sort(Comparator.comparingInt(ids -> ids.size));
+        long prefixIds = 0;
+        for (IdList.View term : terms) {
+            prefixIds += term.size;
+        }
+        
+        List<Poll> results = new ArrayList<>();
+        if (!required.isEmpty() && (long) required.get(0).size * terms.size() < prefixIds) {
+            // Few candidates: walk the shortest list and probe the others,
+            // which are all sorted, and then the prefix's terms
+            IdList.View smallest = required.get(0);
+            for (int i = 0; i < smallest.size && results.size() < limit; i++) {
+                long id = smallest.ids[i];
+                if (inAll(required, 1, id) && inAny(terms, id)) {
+                    results.add(get(id));
+                }
+            }
+        } else {
+            // Walk the prefix's terms merged in id order, and stop at limit
+            // instead of merging and sorting all of them
+            int[] positions = new int[terms.size()];
+            PriorityQueue<Integer> next = new PriorityQueue<>(terms.size(),
+                Comparator.comparingLong(t -> terms.get(t).ids[positions[t]]));
+            for (int t = 0; t < terms.size(); t++) {
+                next.add(t);
+            }
+            long last = 0;
+            boolean first = true;
+            while (!next.isEmpty() && results.size() < limit) {
+                int t = next.poll();
+                IdList.View term = terms.get(t);
+                long id = term.ids[positions[t]];
+                if (++positions[t] < term.size) {
+                    next.add(t);
+                }
+                // A poll can match several terms sharing the prefix
+                if (!first && id == last) {
+                    continue;
+                }
+                first = false;
+                last = id;
+                if (inAll(required, 0, id)) {
+                    results.add(get(id));
+                }
+            }
+        }
+        // Ids passed to register() need not follow creation order
+        results.sort(Comparator.comparingInt(poll -> indexOf(poll.getId())));
+        return results;
+    }
+    
+    private static boolean inAll(List<IdList.View> lists, int from, long id) {
+        for (int i = from; i < lists.size(); i++) {
+            IdList.View ids = lists.get(i);
+            if (Arrays.binarySearch(ids.ids, 0, ids.size, id) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean inAny(List<IdList.View> lists, long id) {
+        for (IdList.View ids : lists) {
+            if (Arrays.binarySearch(ids.ids, 0, ids.size, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // The posting lists of every token starting with prefix, each sorted
+    private List<IdList.View> prefixMatches(String prefix) {
+        List<IdList.View> terms = new ArrayList<>();
+        for (IdList ids : tokenIndex.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            IdList.View view = ids.view();
+            if (view.size > 0) {
+                terms.add(view);
+            }
+        }
+        return terms;
+    }
+    
+    private void index(Poll poll) {
+        List<String> texts = new ArrayList<>();
+        texts.add(poll.getQuestion());
+        texts.addAll(poll.getOptions());
+        index(poll.getId(), tokens(texts));
+    }
+    
+    private void index(long id, Set<String> tokens) {
+        for (String token : tokens) {
+            tokenIndex.computeIfAbsent(token, t -> new IdList()).add(id);
+        }
+    }
+    
+    private static Set<String> tokens(List<String> texts) {
+        Set<String> tokens = new HashSet<>();
+        for (String text : texts) {
+            tokens.addAll(tokenize(text));
+        }
+        return tokens;
+    }
+    
+    // Runs on the indexer thread. Searches until it finishes see only the
+    // stored polls indexed so far. Text is read straight from the store and
+    // tokenized outside the lock; only the posting list updates hold it.
+    private void indexStored(CompactPollStore store, int count) {
+        for (int start = 0; start < count; start += INDEX_BATCH) {
+            int end = Math.min(count, start + INDEX_BATCH);
+            List<Set<String>> batch = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                batch.add(tokens(store.texts(i)));
+            }
+            synchronized (this) {
+                for (int i = start; i < end; i++) {
+                    index(store.idAt(i), batch.get(i - start));
+                }
+            }
+        }
+        synchronized (this) {
+            for (Poll poll : pendingIndex) {
+                index(poll);
+            }
+            pendingIndex = null;
+        }
+    }
+    
+    // Lower-cased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+    
+    // Posting list: ids in ascending order. Appended only under the registry
+    // lock and read without one, using the same publication order as polls.
+    private static final class IdList {
+        // The first size entries of ids, fixed at the time view() was called
+        static final class View {
+            final long[] ids;
+            final int size;
+            
+            View(long[] ids, int size) {
+                this.ids = ids;
+                this.size = size;
+            }
+        }
+        
+        private volatile long[] ids = new long[4];
+        private volatile int size;
+        // Ids passed to register() can arrive out of order. Those below the
+        // last sorted id wait here, unsorted, and are sorted and merged in
+        // one pass by the next view(), so a build costs O(n log n) rather
+        // than a copy of the list per late id
+        private long[] late = new long[0];
+        private int lateSize;
+        private volatile boolean hasLate;
+        
+        synchronized void add(long id) {
+            long[] current = ids;
+            int n = size;
+            if (n > 0 && current[n - 1] > id) {
+                if (lateSize == late.length) {
+                    late = Arrays.copyOf(late, Math.max(4, lateSize * 2));
+                }
+                late[lateSize++] = id;
+                hasLate = true;
+                return;
+            }
+            if (n == current.length) {
+                current = Arrays.copyOf(current, n * 2);
+                ids = current;
+            }
+            current[n] = id;
+            size = n + 1;
+        }
+        
+        View view() {
+            if (hasLate) {
+                mergeLate();
+            }
+            // Size first: the array read after it holds at least that many ids
+            int n = size;
+            return new View(ids, n);
+        }
+        
+        // Into a new array, since earlier views may still be reading the old one
+        private synchronized void mergeLate() {
+            if (lateSize == 0) {
+                return;
+            }
+            long[] extra = Arrays.copyOf(late, lateSize);
+            Arrays.sort(extra);
+            long[] current = ids;
+            int n = size;
+            long[] merged = new long[n + extra.length + Math.max(4, (n + extra.length) / 2)];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < n && j < extra.length) {
+                merged[k++] = current[i] <= extra[j] ? current[i++] : extra[j++];
+            }
+            while (i < n) {
+                merged[k++] = current[i++];
+            }
+            while (j < extra.length) {
+                merged[k++] = extra[j++];
+            }
+            ids = merged;
+            size = k;
+            late = new long[0];
+            lateSize = 0;
+            hasLate = false;
+        }
+    }
+}
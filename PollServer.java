@@ -0,0 +1,637 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Headless HTTP front end for the poll registry.
+//
+//   GET  /polls?offset=0&limit=100  a page of polls in creation order, with
+//                                their results; X-Total-Count has the total
+//   GET  /polls?q=words          polls whose question or options match
+//   POST /polls                  question=...&option=...&option=...
+//                                [&voters=dense|bloom, see VoterFilter.fromSpec]
+//                                [&ballots=ranked|weighted, see BallotStore.fromSpec]
+//                                [&writeins=writein, see WriteInSketch.fromSpec]
+//   GET  /polls/{id}             results of one poll
+//   POST /polls/{id}/vote        option={index}[&voter={id}]
+//   POST /polls/{id}/ballot      rank={index}&rank={index}...[&weight=N][&voter={id}]
+//   GET  /polls/{id}/tally       instant-runoff rounds of a ranked poll
+//   POST /polls/{id}/writein     text=...[&voter={id}]
+//   POST /polls/{id}/promote     text=...  makes a write-in answer an option
+//   GET  /trending?k=10&window=60  busiest polls over the last window seconds
+//
+// Given a VotePipeline, votes, ballots and write-ins are applied by its
+// writer thread in batches and the request waits for its own outcome; a
+// full queue is answered with 503 rather than more waiting.
+//
+// Every exchange gets a response and is closed: malformed input is a 400,
+// a body over MAX_BODY_BYTES a 413, a vote the pipeline could not take or
+// finish in time a 503.
+class PollServer {
+    private static final int SEARCH_LIMIT = 100;
+    // Polls listed per page by default and at most; only the page's polls
+    // are loaded from the snapshot
+    private static final int PAGE_LIMIT = 100;
+    private static final int MAX_PAGE_LIMIT = 1000;
+    // Trending polls listed by default and at most
+    private static final int TRENDING_LIMIT = 10;
+    private static final int MAX_TRENDING_LIMIT = 1000;
+    // Write-in answers listed per poll
+    private static final int WRITE_IN_LIMIT = 10;
+    // How long a request waits for the pipeline to apply its vote
+    private static final long VOTE_TIMEOUT_SECONDS = 10;
+    // How long stop() lets requests in flight finish
+    private static final int STOP_SECONDS = 5;
+    // Largest form body read; anything bigger is answered with 413
+    private static final int MAX_BODY_BYTES = 256 << 10;
+    
+    private final PollRegistry registry;
+    private final TrendingTracker trending;
+    // Null to apply votes on the request thread
+    private final VotePipeline pipeline;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    public PollServer(PollRegistry registry, TrendingTracker trending, int port) throws IOException {
+        this(registry, trending, port, null);
+    }
+    
+    public PollServer(PollRegistry registry, TrendingTracker trending, int port, VotePipeline pipeline) throws IOException {
+        this.registry = registry;
+        this.trending = trending;
+        this.pipeline = pipeline;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/polls", this::handle);
+        server.createContext("/trending", this::handleTrending);
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    // Stops accepting connections and waits for requests in flight, so
+    // none is still voting once this returns. The HTTP server gets a second
+    // to send their responses; before Java 21 it waits out the whole delay.
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Poll server stopped with requests still running");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    // One virtual thread per request where the runtime has them (Java 21+),
+    // otherwise a cached pool of platform threads
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "poll-http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            // path[0] is empty, path[1] is "polls"
+            if (path.length == 2 && method.equals("GET")) {
+                listPolls(exchange);
+            } else if (path.length == 2 && method.equals("POST")) {
+                createPoll(exchange);
+            } else if (path.length == 3 && method.equals("GET")) {
+                showPoll(exchange, parseId(path[2]));
+            } else if (path.length == 4 && path[3].equals("vote") && method.equals("POST")) {
+                vote(exchange, parseId(path[2]));
+            } else if (path.length == 4 && path[3].equals("ballot") && method.equals("POST")) {
+                castBallot(exchange, parseId(path[2]));
+            } else if (path.length == 4 && path[3].equals("tally") && method.equals("GET")) {
+                tally(exchange, parseId(path[2]));
+            } else if (path.length == 4 && path[3].equals("writein") && method.equals("POST")) {
+                writeIn(exchange, parseId(path[2]));
+            } else if (path.length == 4 && path[3].equals("promote") && method.equals("POST")) {
+                promote(exchange, parseId(path[2]));
+            } else {
+                send(exchange, 404, error("Not found"));
+            }
+        } catch (RuntimeException e) {
+            fail(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private void handleTrending(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Method not allowed"));
+                return;
+            }
+            Map<String, List<String>> form = parseForm(exchange);
+            String kParam = first(form, "k").trim();
+            String windowParam = first(form, "window").trim();
+            int k = kParam.isEmpty() ? TRENDING_LIMIT : Integer.parseInt(kParam);
+            int window = windowParam.isEmpty() ? VoteRates.SECONDS : Integer.parseInt(windowParam);
+            if (k < 1 || k > MAX_TRENDING_LIMIT || window < 1 || window > VoteRates.SECONDS) {
+                send(exchange, 400, error("k must be between 1 and " + MAX_TRENDING_LIMIT
+                    + " and window between 1 and " + VoteRates.SECONDS));
+                return;
+            }
+            List<TrendingTracker.Entry> top = trending.top(k, window);
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < top.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"recentVotes\":").append(top.get(i).recentVotes).append(",\"poll\":");
+                appendPoll(json, top.get(i).poll);
+                json.append('}');
+            }
+            json.append(']');
+            send(exchange, 200, json.toString());
+        } catch (RuntimeException e) {
+            fail(exchange, e);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private void listPolls(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        Map<String, List<String>> form = parseForm(exchange);
+        String query = first(form, "q").trim();
+        if (query.isEmpty()) {
+            String offsetParam = first(form, "offset").trim();
+            String limitParam = first(form, "limit").trim();
+            int offset = offsetParam.isEmpty() ? 0 : Integer.parseInt(offsetParam);
+            int limit = limitParam.isEmpty() ? PAGE_LIMIT : Integer.parseInt(limitParam);
+            if (offset < 0 || limit < 1 || limit > MAX_PAGE_LIMIT) {
+                send(exchange, 400, error("offset must be at least 0 and limit between 1 and " + MAX_PAGE_LIMIT));
+                return;
+            }
+            int count = registry.size();
+            int end = (int) Math.min(count, (long) offset + limit);
+            for (int i = offset; i < end; i++) {
+                if (i > offset) {
+                    json.append(',');
+                }
+                appendPoll(json, registry.getAt(i));
+            }
+            exchange.getResponseHeaders().set("X-Total-Count", String.valueOf(count));
+        } else {
+            List<Poll> matches = registry.search(query, SEARCH_LIMIT);
+            for (int i = 0; i < matches.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendPoll(json, matches.get(i));
+            }
+        }
+        json.append(']');
+        send(exchange, 200, json.toString());
+    }
+    
+    private void createPoll(HttpExchange exchange) throws IOException {
+        Map<String, List<String>> form = parseForm(exchange);
+        String question = first(form, "question").trim();
+        ArrayList<String> options = new ArrayList<>();
+        for (String option : form.getOrDefault("option", Collections.emptyList())) {
+            if (!option.trim().isEmpty()) {
+                options.add(option.trim());
+            }
+        }
+        
+        if (question.isEmpty()) {
+            send(exchange, 400, error("Please enter a question!"));
+            return;
+        }
+        if (options.size() < 2) {
+            send(exchange, 400, error("Please enter at least 2 options!"));
+            return;
+        }
+        
+        VoterFilter voterFilter = null;
+        String voters = first(form, "voters").trim();
+        if (!voters.isEmpty()) {
+            try {
+                voterFilter = VoterFilter.fromSpec(voters);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+        }
+        
+        BallotStore ballots = null;
+        String ballotSpec = first(form, "ballots").trim();
+        if (!ballotSpec.isEmpty()) {
+            try {
+                ballots = BallotStore.fromSpec(ballotSpec, options.size());
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+        }
+        
+        WriteInSketch writeIns = null;
+        String writeInSpec = first(form, "writeins").trim();
+        if (!writeInSpec.isEmpty()) {
+            if (ballots != null) {
+                send(exchange, 400, error("Ranked polls cannot take write-in answers"));
+                return;
+            }
+            try {
+                writeIns = WriteInSketch.fromSpec(writeInSpec);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+        }
+        
+        Poll poll = new Poll(question, options, voterFilter, ballots, writeIns);
+        registry.add(poll);
+        StringBuilder json = new StringBuilder();
+        appendPoll(json, poll);
+        send(exchange, 201, json.toString());
+    }
+    
+    private void showPoll(HttpExchange exchange, long id) throws IOException {
+        Poll poll = registry.get(id);
+        if (poll == null) {
+            send(exchange, 404, error("No such poll"));
+            return;
+        }
+        StringBuilder json = new StringBuilder();
+        appendPoll(json, poll);
+        send(exchange, 200, json.toString());
+    }
+    
+    private void vote(HttpExchange exchange, long id) throws IOException {
+        if (registry.get(id) == null) {
+            send(exchange, 404, error("No such poll"));
+            return;
+        }
+        Map<String, List<String>> form = parseForm(exchange);
+        int option = Integer.parseInt(first(form, "option").trim());
+        List<String> voter = form.get("voter");
+        String voterId = voter == null ? null : voter.get(0);
+        VoteResult result = pipeline == null ? durable(registry.vote(id, option, voterId))
+            : submit(done -> VotePipeline.Request.vote(id, option, voterId, done));
+        if (result == null) {
+            sendBusy(exchange);
+            return;
+        }
+        switch (result) {
+            case ACCEPTED:
+                send(exchange, 200, "{\"ok\":true}");
+                break;
+            case DUPLICATE:
+                send(exchange, 409, error("This voter has already voted on this poll"));
+                break;
+            case NOT_DURABLE:
+                sendNotDurable(exchange);
+                break;
+            default:
+                send(exchange, 400, error("Invalid option or voter id"));
+        }
+    }
+    
+    private void castBallot(HttpExchange exchange, long id) throws IOException {
+        Poll poll = registry.get(id);
+        if (poll == null) {
+            send(exchange, 404, error("No such poll"));
+            return;
+        }
+        if (!poll.isRanked()) {
+            send(exchange, 400, error("This poll takes single votes, not ranked ballots"));
+            return;
+        }
+        Map<String, List<String>> form = parseForm(exchange);
+        List<String> ranks = form.getOrDefault("rank", Collections.emptyList());
+        int[] ranking = new int[ranks.size()];
+        for (int i = 0; i < ranking.length; i++) {
+            ranking[i] = Integer.parseInt(ranks.get(i).trim());
+        }
+        String weight = first(form, "weight").trim();
+        int ballotWeight = weight.isEmpty() ? 1 : Integer.parseInt(weight);
+        List<String> voter = form.get("voter");
+        String voterId = voter == null ? null : voter.get(0);
+        VoteResult result = pipeline == null ? durable(registry.castBallot(id, ranking, ballotWeight, voterId))
+            : submit(done -> VotePipeline.Request.ballot(id, ranking, ballotWeight, voterId, done));
+        if (result == null) {
+            sendBusy(exchange);
+            return;
+        }
+        switch (result) {
+            case ACCEPTED:
+                send(exchange, 200, "{\"ok\":true}");
+                break;
+            case DUPLICATE:
+                send(exchange, 409, error("This voter has already voted on this poll"));
+                break;
+            case NOT_DURABLE:
+                sendNotDurable(exchange);
+                break;
+            default:
+                send(exchange, 400, error("Invalid ranking, weight or voter id"));
+        }
+    }
+    
+    private void writeIn(HttpExchange exchange, long id) throws IOException {
+        Poll poll = registry.get(id);
+        if (poll == null) {
+            send(exchange, 404, error("No such poll"));
+            return;
+        }
+        if (!poll.acceptsWriteIns()) {
+            send(exchange, 400, error("This poll does not take write-in answers"));
+            return;
+        }
+        Map<String, List<String>> form = parseForm(exchange);
+        String text = first(form, "text");
+        List<String> voter = form.get("voter");
+        String voterId = voter == null ? null : voter.get(0);
+        VoteResult result = pipeline == null ? durable(registry.writeIn(id, text, voterId))
+            : submit(done -> VotePipeline.Request.writeIn(id, text, voterId, done));
+        if (result == null) {
+            sendBusy(exchange);
+            return;
+        }
+        switch (result) {
+            case ACCEPTED:
+                send(exchange, 200, "{\"ok\":true}");
+                break;
+            case DUPLICATE:
+                send(exchange, 409, error("This voter has already voted on this poll"));
+                break;
+            case NOT_DURABLE:
+                sendNotDurable(exchange);
+                break;
+            default:
+                send(exchange, 400, error("Empty answer or invalid voter id"));
+        }
+    }
+    
+    // Queues a request built around the callback and waits for its outcome;
+    // null if the pipeline's queue is full
+    private VoteResult submit(Function<Consumer<VoteResult>, VotePipeline.Request> request) throws IOException {
+        CompletableFuture<VoteResult> done = new CompletableFuture<>();
+        if (!pipeline.offer(request.apply(done::complete))) {
+            return null;
+        }
+        try {
+            return done.get(VOTE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a vote");
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Vote not applied within " + VOTE_TIMEOUT_SECONDS
+                + " s; it may still be counted", e);
+        }
+    }
+    
+    // A vote applied on the request thread is acknowledged once it is on
+    // disk; the pipeline does the same per batch
+    private VoteResult durable(VoteResult result) {
+        if (result == VoteResult.ACCEPTED) {
+            try {
+                registry.awaitDurable();
+            } catch (IOException e) {
+                System.err.println("Could not flush the journal: " + e.getMessage());
+                return VoteResult.NOT_DURABLE;
+            }
+        }
+        return result;
+    }
+    
+    private void sendNotDurable(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, error("Vote counted but not yet on disk"));
+    }
+    
+    private void sendBusy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, error("Too many votes in flight, try again"));
+    }
+    
+    // Bad numbers and %-escapes are the client's fault; anything else means
+    // the server could not finish the request. Nothing is sent if a response
+    // has already started.
+    private static void fail(HttpExchange exchange, RuntimeException e) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        if (e instanceof BodyTooLarge) {
+            send(exchange, 413, error("Request body is larger than " + MAX_BODY_BYTES + " bytes"));
+        } else if (e instanceof NumberFormatException) {
+            send(exchange, 400, error("Invalid number: " + e.getMessage()));
+        } else if (e instanceof IllegalArgumentException) {
+            send(exchange, 400, error("Bad request: " + e.getMessage()));
+        } else {
+            System.err.println("Request " + exchange.getRequestURI() + " failed: " + e);
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 503, error("Could not complete the request: " + e.getMessage()));
+        }
+    }
+    
+    private void promote(HttpExchange exchange, long id) throws IOException {
+        Poll poll = registry.get(id);
+        if (poll == null) {
+            send(exchange, 404, error("No such poll"));
+            return;
+        }
+        if (!poll.acceptsWriteIns()) {
+            send(exchange, 400, error("This poll does not take write-in answers"));
+            return;
+        }
+        int option;
+        try {
+            option = registry.promoteWriteIn(id, first(parseForm(exchange), "text"));
+        } catch (IllegalStateException e) {
+            send(exchange, 409, error(e.getMessage()));
+            return;
+        }
+        if (option < 0) {
+            send(exchange, 400, error("Please enter an answer to promote!"));
+            return;
+        }
+        send(exchange, 200, "{\"option\":" + option + "}");
+    }
+    
+    private void tally(HttpExchange exchange, long id) throws IOException {
+        Poll poll = registry.get(id);
+        if (poll == null) {
+            send(exchange, 404, error("No such poll"));
+            return;
+        }
+        if (!poll.isRanked()) {
+            send(exchange, 400, error("This poll takes single votes, not ranked ballots"));
+            return;
+        }
+        TallyEngine.Result result = TallyEngine.instantRunoff(poll.getBallots());
+        StringBuilder json = new StringBuilder("{\"ballots\":").append(result.ballots);
+        json.append(",\"winner\":").append(result.winner);
+        json.append(",\"rounds\":[");
+        for (int r = 0; r < result.rounds.size(); r++) {
+            TallyEngine.Round round = result.rounds.get(r);
+            if (r > 0) {
+                json.append(',');
+            }
+            json.append("{\"counts\":[");
+            for (int j = 0; j < round.counts.length; j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append(round.counts[j]);
+            }
+            json.append("],\"exhausted\":").append(round.exhausted);
+            json.append(",\"eliminated\":").append(round.eliminated).append('}');
+        }
+        json.append("]}");
+        send(exchange, 200, json.toString());
+    }
+    
+    private static void appendPoll(StringBuilder json, Poll poll) {
+        json.append("{\"id\":").append(poll.getId());
+        json.append(",\"question\":");
+        appendString(json, poll.getQuestion());
+        PollSnapshot results = poll.snapshot();
+        json.append(",\"totalVotes\":").append(results.getTotalVotes());
+        if (poll.isRanked()) {
+            // Votes per option are first preferences, by weight
+            json.append(",\"ballots\":");
+            appendString(json, poll.getBallots().spec());
+        }
+        json.append(",\"options\":[");
+        for (int j = 0; j < results.getOptionCount(); j++) {
+            if (j > 0) {
+                json.append(',');
+            }
+            json.append("{\"text\":");
+            appendString(json, results.getOptions().get(j));
+            json.append(",\"votes\":").append(results.getVotes(j)).append('}');
+        }
+        json.append(']');
+        if (poll.acceptsWriteIns()) {
+            // Estimates: votes is an upper bound and lower a lower bound, and
+            // no answer left out has more than maxUntracked
+            WriteInSketch writeIns = poll.getWriteIns();
+            json.append(",\"writeIns\":{\"total\":").append(writeIns.total());
+            json.append(",\"maxUntracked\":").append(writeIns.maxUntracked());
+            json.append(",\"top\":[");
+            List<WriteInSketch.Entry> top = writeIns.top(WRITE_IN_LIMIT);
+            for (int j = 0; j < top.size(); j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append("{\"text\":");
+                appendString(json, top.get(j).text);
+                json.append(",\"votes\":").append(top.get(j).upper);
+                json.append(",\"lower\":").append(top.get(j).lower).append('}');
+            }
+            json.append("]}");
+        }
+        json.append('}');
+    }
+    
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+    
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+    
+    private static long parseId(String segment) {
+        return Long.parseLong(segment);
+    }
+    
+    private static String first(Map<String, List<String>> form, String key) {
+        List<String> values = form.get(key);
+        return values == null || values.isEmpty() ? "" : values.get(0);
+    }
+    
+    // Reads parameters from both the query string and an url-encoded body.
+    // A body declared or found to be over MAX_BODY_BYTES is not read further.
+    private static Map<String, List<String>> parseForm(HttpExchange exchange) throws IOException {
+        Map<String, List<String>> form = new HashMap<>();
+        parseInto(form, exchange.getRequestURI().getRawQuery());
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null && Long.parseLong(declared.trim()) > MAX_BODY_BYTES) {
+            throw new BodyTooLarge();
+        }
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) {
+            throw new BodyTooLarge();
+        }
+        parseInto(form, new String(body, StandardCharsets.UTF_8));
+        return form;
+    }
+    
+    // Thrown by parseForm and answered by fail()
+    private static final class BodyTooLarge extends RuntimeException {
+        BodyTooLarge() {
+            super(null, null, false, false);
+        }
+    }
+    
+    private static void parseInto(Map<String, List<String>> form, String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            form.computeIfAbsent(URLDecoder.decode(key, StandardCharsets.UTF_8), k -> new ArrayList<>())
+                .add(URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+    
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
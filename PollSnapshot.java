@@ -0,0 +1,48 @@
+import java.util.Collections;
+import java.util.List;
+
+// Immutable view of a poll's counts at one moment. The total is the sum of
+// exactly these counts, so percentages computed from one snapshot always
+// add up even while votes keep arriving.
+final class PollSnapshot {
+    private final List<String> options;
+    private final long[] votes;
+    private final long totalVotes;
+    // Orders the snapshots of one poll by when their counts were read
+    final long version;
+    
+    PollSnapshot(List<String> options, long[] votes) {
+        this(options, votes, 0);
+    }
+    
+    PollSnapshot(List<String> options, long[] votes, long version) {
+        this.options = Collections.unmodifiableList(options);
+        this.version = version;
+        this.votes = votes;
+        long total = 0;
+        for (long vote : votes) {
+            total += vote;
+        }
+        this.totalVotes = total;
+    }
+    
+    public List<String> getOptions() {
+        return options;
+    }
+    
+    public int getOptionCount() {
+        return votes.length;
+    }
+    
+    public long getVotes(int optionIndex) {
+        return votes[optionIndex];
+    }
+    
+    public long getTotalVotes() {
+        return totalVotes;
+    }
+    
+    public double getPercentage(int optionIndex) {
+        return totalVotes > 0 ? (votes[optionIndex] * 100.0 / totalVotes) : 0;
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+// Table model with one row per poll, or per search result while a filter is
+// set. Cells are computed when a row is painted, so only the visible rows
+// ever touch the vote counters.
+class PollTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"#", "Question", "Total Votes"};
+    
+    private final PollRegistry registry;
+    private int rows;
+    private List<Poll> filter;
+    
+    public PollTableModel(PollRegistry registry) {
+        this.registry = registry;
+        this.rows = registry.size();
+    }
+    
+    // Must be called on the Event Dispatch Thread
+    public void refresh() {
+        if (filter != null) {
+            return;
+        }
+        int current = registry.size();
+        if (current > rows) {
+            int first = rows;
+            rows = current;
+            fireTableRowsInserted(first, current - 1);
+        }
+    }
+    
+    // Shows only the given polls; null goes back to showing every poll
+    public void setFilter(List<Poll> polls) {
+        filter = polls;
+        rows = polls != null ? polls.size() : registry.size();
+        fireTableDataChanged();
+    }
+    
+    // Row currently showing the poll, or -1
+    public int rowOf(long pollId) {
+        if (filter == null) {
+            int index = registry.indexOf(pollId);
+            return index < rows ? index : -1;
+        }
+        for (int i = 0; i < filter.size(); i++) {
+            if (filter.get(i).getId() == pollId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    public Poll getPoll(int row) {
+        return filter != null ? filter.get(row) : registry.getAt(row);
+    }
+    
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+    
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 1 ? String.class : Long.class;
+    }
+    
+    @Override
+    public Object getValueAt(int row, int column) {
+        Poll poll = getPoll(row);
+        switch (column) {
+            case 0: return (long) (registry.indexOf(poll.getId()) + 1);
+            case 1: return poll.getQuestion();
+            default: return poll.getTotalVotes();
+        }
+    }
+}
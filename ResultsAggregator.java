@@ -0,0 +1,54 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongConsumer;
+import javax.swing.Timer;
+
+// Collects poll change notifications from any thread and hands them to the
+// Event Dispatch Thread at most once per frame. Each poll is queued only on
+// its first vote after the previous frame, so the EDT sees one update per
+// changed poll per frame however fast votes arrive.
+class ResultsAggregator implements PollListener {
+    private final PollRegistry registry;
+    private final LongConsumer onChanged;
+    private final ConcurrentLinkedQueue<Long> pending = new ConcurrentLinkedQueue<>();
+    private final Timer timer;
+    
+    // onChanged receives the id of each changed poll on the EDT
+    public ResultsAggregator(PollRegistry registry, int frameMillis, LongConsumer onChanged) {
+        this.registry = registry;
+        this.onChanged = onChanged;
+        this.timer = new Timer(frameMillis, e -> drain());
+        this.timer.setCoalesce(true);
+    }
+    
+    public void start() {
+        registry.addListener(this);
+        timer.start();
+    }
+    
+    public void stop() {
+        timer.stop();
+        registry.removeListener(this);
+    }
+    
+    @Override
+    public void pollChanged(Poll poll) {
+        pending.offer(poll.getId());
+    }
+    
+    private void drain() {
+        ArrayList<Long> changed = new ArrayList<>();
+        Long id;
+        while ((id = pending.poll()) != null) {
+            changed.add(id);
+        }
+        // Re-arm before reading, so votes landing during the update are
+        // picked up by the next frame rather than lost
+        for (long pollId : changed) {
+            registry.get(pollId).clearChanged();
+        }
+        for (long pollId : changed) {
+            onChanged.accept(pollId);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// One striped counter per option: concurrent voters update different cells
+// instead of fighting over a single value, and an increment never allocates.
+// The default, and the best choice for a few very hot polls.
+class StripedVoteCounts implements VoteCounts {
+    private final LongAdder[] counts;
+    
+    public StripedVoteCounts(int options) {
+        counts = new LongAdder[options];
+        for (int i = 0; i < options; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+    
+    @Override
+    public void increment(int optionIndex) {
+        counts[optionIndex].increment();
+    }
+    
+    @Override
+    public void add(int optionIndex, long count) {
+        counts[optionIndex].add(count);
+    }
+    
+    @Override
+    public long get(int optionIndex) {
+        return counts[optionIndex].sum();
+    }
+    
+    @Override
+    public int size() {
+        return counts.length;
+    }
+    
+    @Override
+    public long heapBytes() {
+        // The array plus a LongAdder and its cells once voters have contended
+        return 16 + 56L * counts.length;
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Instant-runoff count of a BallotStore. In each round every ballot counts,
+// with its weight, for its most preferred option still in the race. An
+// option holding more than half of the weight still in play wins; otherwise
+// the last-placed option is eliminated and the next round begins. Ballots
+// with no options left are exhausted and drop out of the majority.
+//
+// Each ballot's current choice is remembered as a rank in one byte, so after
+// the first round a pass only advances the ballots that were on the
+// eliminated option and counts the weight they carry over. Passes split the
+// ballots into per-chunk tasks on a ForkJoinPool whose per-option sums are
+// added together as the tasks join.
+final class TallyEngine {
+    // One BallotStore chunk, so a leaf task never straddles two
+    private static final int LEAF_BALLOTS = BallotStore.CHUNK_BALLOTS;
+    
+    // One row of the count, before that round's elimination
+    static final class Round {
+        // Weight held by each option; 0 for options already eliminated
+        final long[] counts;
+        // Weight of ballots with no option left in the race
+        final long exhausted;
+        // Option eliminated at the end of this round, or -1 in the last round
+        final int eliminated;
+        
+        Round(long[] counts, long exhausted, int eliminated) {
+            this.counts = counts;
+            this.exhausted = exhausted;
+            this.eliminated = eliminated;
+        }
+    }
+    
+    static final class Result {
+        final List<Round> rounds;
+        // -1 if no ballot ranks any option
+        final int winner;
+        final int ballots;
+        final long elapsedNanos;
+        
+        Result(List<Round> rounds, int winner, int ballots, long elapsedNanos) {
+            this.rounds = rounds;
+            this.winner = winner;
+            this.ballots = ballots;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+    
+    private TallyEngine() {
+    }
+    
+    public static Result instantRunoff(BallotStore ballots) {
+        return instantRunoff(ballots, ForkJoinPool.commonPool());
+    }
+    
+    // Counts the ballots cast so far; ballots added meanwhile are left out.
+    // Ties for last place go to the option that had less in the latest
+    // round where they differed, and failing that to the one listed last.
+    public static Result instantRunoff(BallotStore ballots, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        int n = ballots.size();
+        int candidates = ballots.getCandidates();
+        byte[] cursors = new byte[n];
+        boolean[] eliminated = new boolean[candidates];
+        // One slot per option, then the exhausted weight
+        long[] counts = pool.invoke(new Pass(ballots, cursors, eliminated, -1, 0, n));
+        List<Round> rounds = new ArrayList<>();
+        int remaining = candidates;
+        while (true) {
+            long active = 0;
+            int leader = -1;
+            for (int c = 0; c < candidates; c++) {
+                if (!eliminated[c]) {
+                    active += counts[c];
+                    if (leader < 0 || counts[c] > counts[leader]) {
+                        leader = c;
+                    }
+                }
+            }
+            if (active == 0 || remaining == 1 || counts[leader] * 2 > active) {
+                rounds.add(new Round(Arrays.copyOf(counts, candidates), counts[candidates], -1));
+                return new Result(rounds, active == 0 ? -1 : leader, n, System.nanoTime() - start);
+            }
+            int loser = lastPlace(counts, eliminated, rounds);
+            rounds.add(new Round(Arrays.copyOf(counts, candidates), counts[candidates], loser));
+            eliminated[loser] = true;
+            remaining--;
+            long[] moved = pool.invoke(new Pass(ballots, cursors, eliminated, loser, 0, n));
+            counts[loser] = 0;
+            for (int c = 0; c <= candidates; c++) {
+                counts[c] += moved[c];
+            }
+        }
+    }
+    
+    private static int lastPlace(long[] counts, boolean[] eliminated, List<Round> rounds) {
+        int loser = -1;
+        for (int c = 0; c < eliminated.length; c++) {
+            if (eliminated[c]) {
+                continue;
+            }
+            if (loser < 0 || counts[c] < counts[loser]) {
+                loser = c;
+            } else if (counts[c] == counts[loser]) {
+                int earlier = 0;
+                for (int r = rounds.size() - 1; r >= 0 && earlier == 0; r--) {
+                    earlier = Long.compare(rounds.get(r).counts[c], rounds.get(r).counts[loser]);
+                }
+                if (earlier <= 0) {
+                    loser = c;
+                }
+            }
+        }
+        return loser;
+    }
+    
+    // Counts ballots [from, to). With gone < 0 every ballot is placed on its
+    // first choice still in the race; otherwise only ballots currently on
+    // option gone move on, and the result is the weight gained per option.
+    private static final class Pass extends RecursiveTask<long[]> {
+        private final BallotStore ballots;
+        private final byte[] cursors;
+        private final boolean[] eliminated;
+        private final int gone;
+        private final int from;
+        private final int to;
+        
+        Pass(BallotStore ballots, byte[] cursors, boolean[] eliminated, int gone, int from, int to) {
+            this.ballots = ballots;
+            this.cursors = cursors;
+            this.eliminated = eliminated;
+            this.gone = gone;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected long[] compute() {
+            if (to - from <= LEAF_BALLOTS) {
+                return countLeaf();
+            }
+            // Split on a chunk boundary
+            int chunks = (to - from + LEAF_BALLOTS - 1) / LEAF_BALLOTS;
+            int mid = from + (chunks / 2) * LEAF_BALLOTS;
+            Pass left = new Pass(ballots, cursors, eliminated, gone, from, mid);
+            left.fork();
+            long[] sums = new Pass(ballots, cursors, eliminated, gone, mid, to).compute();
+            long[] leftSums = left.join();
+            for (int c = 0; c < sums.length; c++) {
+                sums[c] += leftSums[c];
+            }
+            return sums;
+        }
+        
+        private long[] countLeaf() {
+            int candidates = eliminated.length;
+            int ranks = ballots.getRanks();
+            long[] sums = new long[candidates + 1];
+            if (from >= to) {
+                return sums;
+            }
+            int chunk = from >>> BallotStore.CHUNK_SHIFT;
+            byte[] choices = ballots.rankChunk(chunk);
+            int[] weights = ballots.weightChunk(chunk);
+            int goneChoice = gone + 1;
+            for (int i = from; i < to; i++) {
+                int offset = i & (BallotStore.CHUNK_BALLOTS - 1);
+                int base = offset * ranks;
+                int rank = cursors[i] & 0xFF;
+                if (gone >= 0) {
+                    if (rank >= ranks || (choices[base + rank] & 0xFF) != goneChoice) {
+                        continue;
+                    }
+                    rank++;
+                }
+                int choice = 0;
+                while (rank < ranks && (choice = choices[base + rank] & 0xFF) != 0 && eliminated[choice - 1]) {
+                    rank++;
+                }
+                long weight = weights == null ? 1 : weights[offset];
+                if (rank < ranks && choice != 0) {
+                    sums[choice - 1] += weight;
+                } else {
+                    rank = ranks;
+                    sums[candidates] += weight;
+                }
+                cursors[i] = (byte) rank;
+            }
+            return sums;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Ranks polls by how many votes they received recently. Polls announce
+// themselves at most once a second, on their first vote of that second, so
+// ranking only looks at polls with recent activity instead of every poll;
+// polls that go quiet for a full rate window drop out of the active set.
+class TrendingTracker implements PollListener {
+    // A poll and its vote count over the ranking window
+    static final class Entry {
+        final Poll poll;
+        final long recentVotes;
+        
+        Entry(Poll poll, long recentVotes) {
+            this.poll = poll;
+            this.recentVotes = recentVotes;
+        }
+    }
+    
+    private final ConcurrentHashMap<Long, Poll> active = new ConcurrentHashMap<>();
+    
+    public TrendingTracker(PollRegistry registry) {
+        registry.addListener(this);
+    }
+    
+    @Override
+    public void pollChanged(Poll poll) {
+    }
+    
+    @Override
+    public void pollActive(Poll poll) {
+        active.put(poll.getId(), poll);
+    }
+    
+    // The k polls with the most votes in the last windowSeconds (at most 60),
+    // busiest first. Uses a k-sized min-heap over the active polls, which is
+    // never allocated larger than the active set, whatever k is.
+    public List<Entry> top(int k, int windowSeconds) {
+        if (windowSeconds < 1 || windowSeconds > VoteRates.SECONDS) {
+            throw new IllegalArgumentException("Window must be between 1 and " + VoteRates.SECONDS + " seconds");
+        }
+        long now = VoteRates.currentSecond();
+        int capacity = Math.max(1, Math.min(k, active.size()));
+        PriorityQueue<Entry> heap = new PriorityQueue<>(capacity, Comparator.comparingLong(e -> e.recentVotes));
+        Iterator<Poll> polls = active.values().iterator();
+        while (polls.hasNext()) {
+            Poll poll = polls.next();
+            VoteRates rates = poll.getRates();
+            if (rates == null || rates.lastActiveSecond() <= now - VoteRates.SECONDS) {
+                // Re-added on its next vote
+                polls.remove();
+                continue;
+            }
+            long recent = rates.votesInLastSeconds(windowSeconds, now);
+            if (recent == 0 || k <= 0) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(new Entry(poll, recent));
+            } else if (recent > heap.peek().recentVotes) {
+                heap.poll();
+                heap.add(new Entry(poll, recent));
+            }
+        }
+        List<Entry> ranked = new ArrayList<>(heap);
+        ranked.sort(Comparator.comparingLong((Entry e) -> e.recentVotes).reversed());
+        return ranked;
+    }
+}
@@ -0,0 +1,20 @@
+// Per-option vote counters of one poll. Implementations must be lock-free
+// and safe to update from any number of threads.
+interface VoteCounts {
+    void increment(int optionIndex);
+    
+    void add(int optionIndex, long count);
+    
+    long get(int optionIndex);
+    
+    int size();
+    
+    // Heap bytes held by these counters; off-heap storage is not included
+    long heapBytes();
+    
+    // Striped on-heap counters, or null once OffHeapVoteCounts.enable() has
+    // been called: a Poll given null takes slots in the off-heap slab itself
+    static VoteCounts create(int options) {
+        return OffHeapVoteCounts.isEnabled() ? null : new StripedVoteCounts(options);
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+// Stress check that concurrent voters lose no updates. Many threads, more
+// than there are cores so they are preempted mid-update, vote on the same
+// few options at once; afterwards every counter must hold exactly the votes
+// sent to it. Run after touching any VoteCounts implementation or the vote
+// path:
+//
+//   java VoteCountsCheck [--votes N] [--threads N] [--options N]
+//
+// Exits with status 1 and prints the first wrong counter on failure.
+class VoteCountsCheck {
+    private interface Voter {
+        void vote(int option);
+    }
+    
+    private VoteCountsCheck() {
+    }
+    
+    public static void main(String[] args) throws Exception {
+        long votes = 12_000_000;
+        int threads = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+        int options = 4;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--votes": votes = Long.parseLong(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--options": options = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (votes < 1 || threads < 1 || options < 2) {
+            System.err.println("Need at least 1 vote, 1 thread and 2 options");
+            System.exit(2);
+        }
+        long perThread = (votes + threads - 1) / threads;
+        System.out.printf("%d votes from %d threads on %d options%n", perThread * threads, threads, options);
+        
+        boolean ok = true;
+        
+        StripedVoteCounts striped = new StripedVoteCounts(options);
+        ok &= check("StripedVoteCounts", striped, striped::increment, threads, perThread);
+        
+        AtomicVoteCounts atomic = new AtomicVoteCounts(options);
+        ok &= check("AtomicVoteCounts", atomic, atomic::increment, threads, perThread);
+        
+        OffHeapVoteCounts offHeap = OffHeapVoteCounts.view(OffHeapVoteCounts.allocate(options), options);
+        ok &= check("OffHeapVoteCounts", offHeap, offHeap::increment, threads, perThread);
+        
+        // Half the options added after creation, as write-in promotion does
+        VoteCounts extended = new StripedVoteCounts(options - options / 2);
+        for (int i = 0; i < options / 2; i++) {
+            extended = ExtendedVoteCounts.withOption(extended);
+        }
+        ok &= check("ExtendedVoteCounts", extended, extended::increment, threads, perThread);
+        
+        // The whole path a vote takes, rates and notifications included
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < options; i++) {
+            names.add("Option " + (i + 1));
+        }
+        PollRegistry registry = new PollRegistry();
+        long pollId = registry.add(new Poll("Stress check", names));
+        Poll poll = registry.get(pollId);
+        VoteCounts viaRegistry = new VoteCounts() {
+            @Override
+            public void increment(int optionIndex) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public void add(int optionIndex, long count) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public long get(int optionIndex) {
+                return poll.getVotes(optionIndex);
+            }
+            
+            @Override
+            public int size() {
+                return poll.getOptions().size();
+            }
+            
+            @Override
+            public long heapBytes() {
+                return 0;
+            }
+        };
+        ok &= check("PollRegistry.vote", viaRegistry, option -> {
+            if (registry.vote(pollId, option, null) != VoteResult.ACCEPTED) {
+                throw new IllegalStateException("Vote rejected");
+            }
+        }, threads, perThread);
+        
+        if (!ok) {
+            System.exit(1);
+        }
+        System.out.println("All counts exact");
+    }
+    
+    // Thread t sends its i-th vote to option (i + t) % options
+    private static boolean check(String name, VoteCounts counts, Voter voter, int threads, long perThread)
+            throws InterruptedException {
+        int options = counts.size();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (long i = 0; i < perThread; i++) {
+                        voter.vote((int) ((i + thread) % options));
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (failure[0] != null) {
+            System.out.printf("%-20s FAILED: %s%n", name, failure[0]);
+            return false;
+        }
+        
+        long[] expected = new long[options];
+        for (int t = 0; t < threads; t++) {
+            for (int o = 0; o < options; o++) {
+                // Votes i in [0, perThread) with (i + t) % options == o
+                long first = Math.floorMod(o - t, options);
+                expected[o] += first < perThread ? (perThread - 1 - first) / options + 1 : 0;
+            }
+        }
+        for (int o = 0; o < options; o++) {
+            if (counts.get(o) != expected[o]) {
+                System.out.printf("%-20s FAILED: option %d has %d votes, expected %d%n",
+                    name, o, counts.get(o), expected[o]);
+                return false;
+            }
+        }
+        System.out.printf("%-20s ok  %.0f votes/s%n", name, threads * perThread * 1e9 / elapsed);
+        return true;
+    }
+}
@@ -0,0 +1,772 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+// Append-only binary journal of poll creations, votes, ranked ballots,
+// write-in answers and bulk-imported vote counts.
+//
+// Records are written into memory-mapped regions of the current journal file.
+// Only claiming room takes the journal's lock; the bytes are copied after.
+// Every append returns a ticket, and a caller that acknowledges a vote first
+// waits in sync(ticket). Syncs are grouped: one thread forces the regions
+// while the others wait, then all of them return, so a burst of votes shares
+// one fsync instead of paying one each. A background flusher forces every
+// few milliseconds too, bounding what a crash can take of records nobody
+// waited for. When a journal file grows past ROLL_BYTES it is sealed and a
+// new generation is started; sealed generations are folded into
+// snapshot.bin in the background. snapshot.bin is a CompactPollStore, so on
+// startup it is only mapped, not read; any newer journals are then replayed
+// over it.
+//
+// Journal layout: a 16 byte header (magic, version, generation) followed by
+// records. A record is a type byte, the body length (int), the body and a
+// CRC32C of length, body and type. The type is written last, so a record
+// the writer never finished reads as zero, and the checksum catches one
+// whose pages reached the disk partly or out of order; replay stops at the
+// first record that fails either test.
+class VoteJournal implements Closeable {
+    private static final int JOURNAL_MAGIC = 0x504A524E;  // "PJRN"
+    private static final int FORMAT_VERSION = 4;
+    private static final int HEADER_BYTES = 16;
+    // Type, length and checksum around every body
+    private static final int FRAME_BYTES = 9;
+    
+    private static final byte END = 0;
+    private static final byte CREATE_POLL = 1;
+    private static final byte VOTE = 2;
+    private static final byte NEXT_REGION = 3;
+    private static final byte VOTER_VOTE = 4;
+    // Ranked-choice ballots and polls; CREATE_BALLOT_POLL is CREATE_POLL
+    // followed by the ballot spec
+    private static final byte BALLOT = 5;
+    private static final byte VOTER_BALLOT = 6;
+    private static final byte CREATE_BALLOT_POLL = 7;
+    // Write-in answers and the options they became; CREATE_WRITE_IN_POLL is
+    // CREATE_POLL followed by the write-in spec
+    private static final byte WRITE_IN = 8;
+    private static final byte VOTER_WRITE_IN = 9;
+    private static final byte ADD_OPTION = 10;
+    private static final byte CREATE_WRITE_IN_POLL = 11;
+    // Pre-aggregated votes: the number of options, then one count each
+    private static final byte VOTES = 12;
+    
+    private static final int REGION_BYTES = 64 << 20;
+    private static final long ROLL_BYTES = 512L << 20;
+    private static final long FLUSH_INTERVAL_MS = 10;
+    // A record must fit in one region with the header and a NEXT_REGION byte
+    static final int MAX_RECORD_BYTES = REGION_BYTES - HEADER_BYTES - FRAME_BYTES - 1;
+    
+    private final Path dir;
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compactor;
+    private final Object compactionLock = new Object();
+    
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    // Sealed regions not yet forced to disk; guarded by this
+    private final ArrayList<MappedByteBuffer> unflushed = new ArrayList<>();
+    private boolean dirty;
+    private boolean closed;
+    // Bytes reserved since the journal opened; a record's ticket is the
+    // count just past it. Guarded by this.
+    private long appended;
+    // Records reserved but not yet committed; a force waits for them
+    private final AtomicInteger writers = new AtomicInteger();
+    // Group commit: one thread forces at a time and the others wait for it
+    private final Object syncLock = new Object();
+    // Tickets up to here are on disk; guarded by syncLock
+    private long durable;
+    private boolean forcing;
+    
+    // Where a record is being written: the type byte at pos, the body after
+    // the frame, and the ticket to sync for it
+    private static final class Reservation {
+        final MappedByteBuffer buf;
+        final int pos;
+        final int body;
+        final int length;
+        final long ticket;
+        
+        Reservation(MappedByteBuffer buf, int pos, int length, long ticket) {
+            this.buf = buf;
+            this.pos = pos;
+            this.body = pos + 5;
+            this.length = length;
+            this.ticket = ticket;
+        }
+    }
+    
+    private VoteJournal(Path dir, long generation) throws IOException {
+        this.dir = dir;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "vote-journal-flush"));
+        this.compactor = Executors.newSingleThreadExecutor(r -> daemon(r, "vote-journal-compact"));
+        startGeneration(generation);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    // Loads the snapshot and journals found in dir into registry (which must
+    // be empty), then opens a fresh journal generation for new writes.
+    public static VoteJournal open(Path dir, PollRegistry registry) throws IOException {
+        Files.createDirectories(dir);
+        long lastGeneration = loadSnapshot(dir, registry);
+        List<Long> pending = journalGenerations(dir, lastGeneration);
+        for (long gen : pending) {
+            replay(journalPath(dir, gen), registry);
+            lastGeneration = gen;
+        }
+        VoteJournal journal = new VoteJournal(dir, lastGeneration + 1);
+        if (!pending.isEmpty()) {
+            journal.compactor.execute(journal::compactQuietly);
+        }
+        return journal;
+    }
+    
+    // Every append returns its ticket; pass it to sync() before telling
+    // anyone the record is safe. Appends throw IllegalArgumentException for
+    // a record over MAX_RECORD_BYTES.
+    public long appendCreate(Poll poll) {
+        return appendCreate(poll, true);
+    }
+    
+    // Without durable the record waits for the next flush like a vote, for
+    // callers creating many polls at once
+    public long appendCreate(Poll poll, boolean durable) {
+        byte[] question = poll.getQuestion().getBytes(StandardCharsets.UTF_8);
+        List<String> options = poll.getOptions();
+        byte[][] optionBytes = new byte[options.size()][];
+        long length = 8 + 4 + question.length + 4;
+        for (int i = 0; i < optionBytes.length; i++) {
+            optionBytes[i] = options.get(i).getBytes(StandardCharsets.UTF_8);
+            length += 4 + optionBytes[i].length;
+        }
+        VoterFilter filter = poll.getVoterFilter();
+        byte[] filterSpec = (filter == null ? "" : filter.spec()).getBytes(StandardCharsets.UTF_8);
+        length += 4 + filterSpec.length;
+        // A poll has at most one of these
+        byte[] extraSpec = null;
+        byte type = CREATE_POLL;
+        if (poll.isRanked()) {
+            extraSpec = poll.getBallots().spec().getBytes(StandardCharsets.UTF_8);
+            type = CREATE_BALLOT_POLL;
+        } else if (poll.acceptsWriteIns()) {
+            extraSpec = poll.getWriteIns().spec().getBytes(StandardCharsets.UTF_8);
+            type = CREATE_WRITE_IN_POLL;
+        }
+        if (extraSpec != null) {
+            length += 4 + extraSpec.length;
+        }
+        Reservation r = reserve(length);
+        r.buf.putLong(r.body, poll.getId());
+        int p = putBytes(r.buf, r.body + 8, question);
+        r.buf.putInt(p, optionBytes.length);
+        p += 4;
+        for (byte[] option : optionBytes) {
+            p = putBytes(r.buf, p, option);
+        }
+        p = putBytes(r.buf, p, filterSpec);
+        if (extraSpec != null) {
+            putBytes(r.buf, p, extraSpec);
+        }
+        long ticket = commit(r, type);
+        // Poll definitions are rare and worth waiting for
+        if (durable) {
+            syncQuietly(ticket);
+        }
+        return ticket;
+    }
+    
+    public long appendVote(long pollId, int optionIndex) {
+        Reservation r = reserve(12);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putInt(r.body + 8, optionIndex);
+        return commit(r, VOTE);
+    }
+    
+    // A vote on a one-vote-per-voter poll, with the voter's filter key so
+    // replay can rebuild the set of voters
+    public long appendVoterVote(long pollId, int optionIndex, long voterKey) {
+        Reservation r = reserve(20);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putInt(r.body + 8, optionIndex);
+        r.buf.putLong(r.body + 12, voterKey);
+        return commit(r, VOTER_VOTE);
+    }
+    
+    // A ranked ballot: weight, then the number of choices and one byte per choice
+    public long appendBallot(long pollId, int[] ranking, int weight) {
+        Reservation r = reserve(13 + ranking.length);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putInt(r.body + 8, weight);
+        putRanking(r.buf, r.body + 12, ranking);
+        return commit(r, BALLOT);
+    }
+    
+    // A ranked ballot on a one-vote-per-voter poll, with the voter's filter key
+    public long appendVoterBallot(long pollId, int[] ranking, int weight, long voterKey) {
+        Reservation r = reserve(21 + ranking.length);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putInt(r.body + 8, weight);
+        r.buf.putLong(r.body + 12, voterKey);
+        putRanking(r.buf, r.body + 20, ranking);
+        return commit(r, VOTER_BALLOT);
+    }
+    
+    public long appendWriteIn(long pollId, String answer) {
+        byte[] text = answer.getBytes(StandardCharsets.UTF_8);
+        Reservation r = reserve(12 + text.length);
+        r.buf.putLong(r.body, pollId);
+        putBytes(r.buf, r.body + 8, text);
+        return commit(r, WRITE_IN);
+    }
+    
+    public long appendVoterWriteIn(long pollId, String answer, long voterKey) {
+        byte[] text = answer.getBytes(StandardCharsets.UTF_8);
+        Reservation r = reserve(20 + text.length);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putLong(r.body + 8, voterKey);
+        putBytes(r.buf, r.body + 16, text);
+        return commit(r, VOTER_WRITE_IN);
+    }
+    
+    // A write-in promoted to an option, with the votes it started from
+    public long appendOption(long pollId, String answer, long seed) {
+        byte[] text = answer.getBytes(StandardCharsets.UTF_8);
+        Reservation r = reserve(20 + text.length);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putLong(r.body + 8, seed);
+        putBytes(r.buf, r.body + 16, text);
+        long ticket = commit(r, ADD_OPTION);
+        syncQuietly(ticket);
+        return ticket;
+    }
+    
+    // Many votes at once, deltas[i] for option i
+    public long appendVotes(long pollId, long[] deltas) {
+        Reservation r = reserve(12 + 8L * deltas.length);
+        r.buf.putLong(r.body, pollId);
+        r.buf.putInt(r.body + 8, deltas.length);
+        for (int i = 0; i < deltas.length; i++) {
+            r.buf.putLong(r.body + 12 + 8 * i, deltas[i]);
+        }
+        return commit(r, VOTES);
+    }
+    
+    private static void putRanking(ByteBuffer buf, int pos, int[] ranking) {
+        buf.put(pos, (byte) ranking.length);
+        for (int i = 0; i < ranking.length; i++) {
+            buf.put(pos + 1 + i, (byte) ranking[i]);
+        }
+    }
+    
+    // The ticket of the last record appended
+    public synchronized long lastTicket() {
+        return appended;
+    }
+    
+    // Returns once every record up to ticket is on disk. Callers arriving
+    // while a force runs wait for the next one, which covers all of them:
+    // however many threads sync, there is one force at a time.
+    public void sync(long ticket) throws IOException {
+        synchronized (syncLock) {
+            while (durable < ticket && forcing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the vote journal");
+                }
+            }
+            if (durable >= ticket) {
+                return;
+            }
+            forcing = true;
+        }
+        long reached = 0;
+        try {
+            reached = force();
+        } finally {
+            synchronized (syncLock) {
+                durable = Math.max(durable, reached);
+                forcing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+    
+    // Forces everything appended so far to disk
+    public void flush() throws IOException {
+        sync(lastTicket());
+    }
+    
+    // Waits out records being written, then forces every region touched
+    // since the last force; returns the ticket that covers
+    private long force() throws IOException {
+        MappedByteBuffer[] pending;
+        long upTo;
+        synchronized (this) {
+            // New reservations wait on the lock; those already made only
+            // have to finish copying their bytes
+            while (writers.get() != 0) {
+                Thread.yield();
+            }
+            upTo = appended;
+            if (dirty && region != null) {
+                unflushed.add(region);
+            }
+            dirty = false;
+            pending = unflushed.toArray(new MappedByteBuffer[0]);
+            unflushed.clear();
+        }
+        try {
+            for (MappedByteBuffer buffer : pending) {
+                buffer.force();
+            }
+        } catch (UncheckedIOException e) {
+            // Forced again next time
+            synchronized (this) {
+                unflushed.addAll(Arrays.asList(pending));
+            }
+            throw e.getCause();
+        }
+        return upTo;
+    }
+    
+    // Flushes, folds every journal into a final snapshot and stops the flusher
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(5, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // No appends from here on; those in flight finish before the flush
+            closed = true;
+        }
+        flush();
+        synchronized (this) {
+            region = null;
+            channel.close();
+        }
+        compact(generation);
+    }
+    
+    // Claims room for a record with the given body length. Only the claim
+    // is under the lock; the caller writes the body and commits it without.
+    private Reservation reserve(long length) {
+        if (length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds the "
+                + MAX_RECORD_BYTES + " byte limit");
+        }
+        int total = FRAME_BYTES + (int) length;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            // Always leave one byte for the NEXT_REGION marker
+            if (region.remaining() < total + 1) {
+                region.put(region.position(), NEXT_REGION);
+                unflushed.add(region);
+                try {
+                    long next = regionStart + REGION_BYTES;
+                    if (next >= ROLL_BYTES) {
+                        long sealed = generation;
+                        long sealedTicket = appended;
+                        channel.close();
+                        startGeneration(generation + 1);
+                        // Records still being copied into the sealed file
+                        // must be complete and forced before it is folded
+                        compactor.execute(() -> {
+                            syncQuietly(sealedTicket);
+                            compactQuietly(sealed);
+                        });
+                    } else {
+                        mapRegion(next);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not extend vote journal", e);
+                }
+            }
+            int pos = region.position();
+            region.position(pos + total);
+            appended += total;
+            dirty = true;
+            writers.incrementAndGet();
+            return new Reservation(region, pos, (int) length, appended);
+        }
+    }
+    
+    // Seals a written record: length, checksum, and the type byte last
+    private long commit(Reservation r, byte type) {
+        r.buf.putInt(r.pos + 1, r.length);
+        r.buf.putInt(r.body + r.length, checksum(r.buf, r.pos + 1, r.length, type));
+        r.buf.put(r.pos, type);
+        writers.decrementAndGet();
+        return r.ticket;
+    }
+    
+    // CRC32C of a record's length and body, then its type. Each thread keeps
+    // its own CRC32C and view of the region, so summing a vote allocates
+    // nothing; only the view's position and limit move per record.
+    private static int checksum(ByteBuffer buf, int lengthPos, int length, byte type) {
+        Checksum c = CHECKSUMS.get();
+        if (c.source != buf) {
+            c.source = buf;
+            c.view = buf.duplicate();
+        }
+        c.view.limit(lengthPos + 4 + length).position(lengthPos);
+        c.crc.reset();
+        c.crc.update(c.view);
+        c.crc.update(type);
+        return (int) c.crc.getValue();
+    }
+    
+    private static final class Checksum {
+        final CRC32C crc = new CRC32C();
+        ByteBuffer source;
+        ByteBuffer view;
+    }
+    
+    private static final ThreadLocal<Checksum> CHECKSUMS = ThreadLocal.withInitial(Checksum::new);
+    
+    private void startGeneration(long gen) throws IOException {
+        generation = gen;
+        channel = FileChannel.open(journalPath(dir, gen),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapRegion(0);
+        region.putInt(4, FORMAT_VERSION);
+        region.putLong(8, gen);
+        region.putInt(0, JOURNAL_MAGIC);
+        region.position(HEADER_BYTES);
+    }
+    
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+    
+    private void mapRegion(long start) throws IOException {
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_BYTES);
+    }
+    
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Vote journal flush failed: " + e.getMessage());
+        }
+    }
+    
+    private void syncQuietly(long ticket) {
+        try {
+            sync(ticket);
+        } catch (IOException e) {
+            System.err.println("Vote journal flush failed: " + e.getMessage());
+        }
+    }
+    
+    private void compactQuietly() {
+        long upTo;
+        synchronized (this) {
+            upTo = generation - 1;
+        }
+        compactQuietly(upTo);
+    }
+    
+    private void compactQuietly(long upTo) {
+        try {
+            compact(upTo);
+        } catch (IOException e) {
+            System.err.println("Vote journal compaction failed: " + e.getMessage());
+        }
+    }
+    
+    // Folds the snapshot and every journal up to and including generation
+    // upTo into a new snapshot, then deletes those journals. Works purely from
+    // files, so it never races with live voting.
+    private void compact(long upTo) throws IOException {
+        synchronized (compactionLock) {
+            compactLocked(upTo);
+        }
+    }
+    
+    private void compactLocked(long upTo) throws IOException {
+        PollRegistry merged = new PollRegistry(false);
+        long snapshotGeneration = loadSnapshot(dir, merged);
+        List<Long> generations = journalGenerations(dir, snapshotGeneration);
+        List<Long> folded = new ArrayList<>();
+        for (long gen : generations) {
+            if (gen > upTo) {
+                break;
+            }
+            replay(journalPath(dir, gen), merged);
+            folded.add(gen);
+        }
+        if (folded.isEmpty()) {
+            return;
+        }
+        writeSnapshot(dir, merged, folded.get(folded.size() - 1));
+        for (long gen : folded) {
+            Files.deleteIfExists(journalPath(dir, gen));
+        }
+    }
+    
+    // Polls the journals never touched are copied from the old store as they are
+    private static void writeSnapshot(Path dir, PollRegistry registry, long generation) throws IOException {
+        Path tmp = dir.resolve("snapshot.bin.tmp");
+        CompactPollStore previous = registry.getStore();
+        try (CompactPollStore.Writer out = new CompactPollStore.Writer(tmp, generation)) {
+            for (int i = 0; i < registry.size(); i++) {
+                Poll poll = registry.peekAt(i);
+                if (poll != null) {
+                    out.add(poll);
+                } else {
+                    previous.copyTo(i, out);
+                }
+            }
+            out.finish();
+        }
+        Files.move(tmp, dir.resolve("snapshot.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    // Returns the last journal generation covered by the snapshot, or 0
+    private static long loadSnapshot(Path dir, PollRegistry registry) throws IOException {
+        Path path = dir.resolve("snapshot.bin");
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        if (!CompactPollStore.isStore(path)) {
+            throw new IOException("Unrecognized snapshot format: " + path);
+        }
+        CompactPollStore store = CompactPollStore.open(path);
+        registry.attach(store);
+        return store.getGeneration();
+    }
+    
+    private static void replay(Path path, PollRegistry registry) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = file.size();
+            if (size < HEADER_BYTES) {
+                return;
+            }
+            // Votes are summed per poll first and applied once at the end, so a
+            // stored poll is loaded only if it has votes to replay. Votes usually
+            // come in runs for the same poll, so remember the last one.
+            HashMap<Integer, long[]> tally = new HashMap<>();
+            long lastId = 0;
+            long[] lastCounts = null;
+            Poll lastPoll = null;
+            
+            long regionStart = 0;
+            boolean done = false;
+            while (!done && regionStart < size) {
+                ByteBuffer buf = file.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(REGION_BYTES, size - regionStart));
+                int pos = 0;
+                if (regionStart == 0) {
+                    if (buf.getInt(0) != JOURNAL_MAGIC || buf.getInt(4) != FORMAT_VERSION) {
+                        throw new IOException("Unrecognized journal format: " + path);
+                    }
+                    pos = HEADER_BYTES;
+                }
+                while (true) {
+                    byte type = pos < buf.limit() ? buf.get(pos) : END;
+                    if (type == END) {
+                        done = true;
+                        break;
+                    }
+                    if (type == NEXT_REGION) {
+                        break;
+                    }
+                    int length = pos + FRAME_BYTES <= buf.limit() ? buf.getInt(pos + 1) : -1;
+                    if (length < 0 || length > buf.limit() - pos - FRAME_BYTES
+                            || buf.getInt(pos + 5 + length) != checksum(buf, pos + 1, length, type)) {
+                        // Torn by a crash; nothing after it was acknowledged
+                        done = true;
+                        break;
+                    }
+                    // b is where the body starts; next, where the next record does
+                    int b = pos + 5;
+                    int next = b + length + 4;
+                    if (type == VOTE || type == VOTER_VOTE) {
+                        long pollId = buf.getLong(b);
+                        int option = buf.getInt(b + 8);
+                        if (lastCounts == null || pollId != lastId) {
+                            int position = registry.indexOf(pollId);
+                            lastId = pollId;
+                            lastPoll = position < 0 ? null : registry.getAt(position);
+                            lastCounts = position < 0 ? null : tallyFor(tally, position, lastPoll);
+                        }
+                        if (lastCounts != null && option >= 0 && option < lastCounts.length) {
+                            lastCounts[option]++;
+                            if (type == VOTER_VOTE && lastPoll.requiresVoterId()) {
+                                lastPoll.recordVoter(buf.getLong(b + 12));
+                            }
+                        }
+                    } else if (type == VOTES) {
+                        long pollId = buf.getLong(b);
+                        int n = buf.getInt(b + 8);
+                        int position = registry.indexOf(pollId);
+                        if (position >= 0) {
+                            long[] counts = tallyFor(tally, position, registry.getAt(position));
+                            for (int j = 0; j < n && j < counts.length; j++) {
+                                counts[j] += buf.getLong(b + 12 + 8 * j);
+                            }
+                        }
+                    } else if (type == BALLOT || type == VOTER_BALLOT) {
+                        long pollId = buf.getLong(b);
+                        int weight = buf.getInt(b + 8);
+                        int p = type == BALLOT ? b + 12 : b + 20;
+                        int[] ranking = new int[buf.get(p) & 0xFF];
+                        for (int j = 0; j < ranking.length; j++) {
+                            ranking[j] = buf.get(p + 1 + j) & 0xFF;
+                        }
+                        int position = registry.indexOf(pollId);
+                        Poll poll = position < 0 ? null : registry.getAt(position);
+                        if (poll != null && poll.isRanked() && poll.getBallots().isValid(ranking, weight)) {
+                            if (type == VOTER_BALLOT && poll.requiresVoterId()) {
+                                poll.recordVoter(buf.getLong(b + 12));
+                            }
+                            // The ballot itself is stored now; its first choice is
+                            // counted with the votes below
+                            poll.getBallots().add(ranking, weight);
+                            tallyFor(tally, position, poll)[ranking[0]] += weight;
+                        }
+                    } else if (type == WRITE_IN || type == VOTER_WRITE_IN) {
+                        long pollId = buf.getLong(b);
+                        int p = type == WRITE_IN ? b + 8 : b + 16;
+                        String answer = getString(buf, p);
+                        int position = registry.indexOf(pollId);
+                        Poll poll = position < 0 ? null : registry.getAt(position);
+                        if (poll != null && poll.acceptsWriteIns()) {
+                            if (type == VOTER_WRITE_IN && poll.requiresVoterId()) {
+                                poll.recordVoter(buf.getLong(b + 8));
+                            }
+                            int option = poll.optionOf(answer);
+                            if (option >= 0) {
+                                tallyFor(tally, position, poll)[option]++;
+                            } else {
+                                poll.getWriteIns().add(answer, 1);
+                            }
+                        }
+                    } else if (type == ADD_OPTION) {
+                        long pollId = buf.getLong(b);
+                        long seed = buf.getLong(b + 8);
+                        String answer = getString(buf, b + 16);
+                        int position = registry.indexOf(pollId);
+                        Poll poll = position < 0 ? null : registry.getAt(position);
+                        if (poll != null && poll.acceptsWriteIns() && poll.optionOf(answer) < 0) {
+                            int option = poll.addOption(answer);
+                            poll.getWriteIns().take(answer);
+                            tallyFor(tally, position, poll)[option] += seed;
+                            // The cached tally may be the one just grown
+                            lastCounts = null;
+                        }
+                    } else if (type == CREATE_POLL || type == CREATE_BALLOT_POLL || type == CREATE_WRITE_IN_POLL) {
+                        long pollId = buf.getLong(b);
+                        int p = b + 8;
+                        String question = getString(buf, p);
+                        p += 4 + buf.getInt(p);
+                        int optionCount = buf.getInt(p);
+                        p += 4;
+                        ArrayList<String> options = new ArrayList<>(optionCount);
+                        for (int j = 0; j < optionCount; j++) {
+                            options.add(getString(buf, p));
+                            p += 4 + buf.getInt(p);
+                        }
+                        String filterSpec = getString(buf, p);
+                        p += 4 + buf.getInt(p);
+                        BallotStore ballots = null;
+                        WriteInSketch writeIns = null;
+                        if (type == CREATE_BALLOT_POLL) {
+                            ballots = BallotStore.fromSpec(getString(buf, p), optionCount);
+                            p += 4 + buf.getInt(p);
+                        } else if (type == CREATE_WRITE_IN_POLL) {
+                            writeIns = WriteInSketch.fromSpec(getString(buf, p));
+                            p += 4 + buf.getInt(p);
+                        }
+                        if (registry.get(pollId) != null) {
+                            throw new IOException("Journal " + path + " registers poll " + pollId + " twice");
+                        }
+                        VoterFilter filter = filterSpec.isEmpty() ? null : VoterFilter.fromSpec(filterSpec);
+                        registry.register(pollId, new Poll(question, options, filter, ballots, writeIns,
+                            registry.newCounts(optionCount)));
+                    } else {
+                        done = true;
+                        break;
+                    }
+                    pos = next;
+                }
+                regionStart += REGION_BYTES;
+            }
+            
+            for (Map.Entry<Integer, long[]> entry : tally.entrySet()) {
+                long[] counts = entry.getValue();
+                Poll poll = registry.getAt(entry.getKey());
+                for (int j = 0; j < counts.length; j++) {
+                    if (counts[j] != 0) {
+                        poll.addVotes(j, counts[j]);
+                    }
+                }
+            }
+        }
+    }
+    
+    // The votes to replay for a poll, one per option; grown if the poll has
+    // gained options since the array was made
+    private static long[] tallyFor(HashMap<Integer, long[]> tally, int position, Poll poll) {
+        long[] counts = tally.get(position);
+        int options = poll.getOptions().size();
+        if (counts == null || counts.length < options) {
+            counts = counts == null ? new long[options] : Arrays.copyOf(counts, options);
+            tally.put(position, counts);
+        }
+        return counts;
+    }
+    
+    private static List<Long> journalGenerations(Path dir, long after) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long gen = Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+                if (gen > after) {
+                    generations.add(gen);
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+    
+    private static Path journalPath(Path dir, long generation) {
+        return dir.resolve(String.format("journal-%016d.log", generation));
+    }
+    
+    private static int putBytes(ByteBuffer buf, int pos, byte[] bytes) {
+        buf.putInt(pos, bytes.length);
+        buf.put(pos + 4, bytes);
+        return pos + 4 + bytes.length;
+    }
+    
+    private static String getString(ByteBuffer buf, int pos) {
+        byte[] bytes = new byte[buf.getInt(pos)];
+        buf.get(pos + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
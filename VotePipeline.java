@@ -0,0 +1,391 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Carries votes from any number of submitting threads (the EDT, HTTP
+// handlers, load generators) to one writer thread, so a submitter never
+// waits on the journal, the registry lock or a slow listener.
+//
+// Requests go into a bounded ring with a sequence number per slot: producers
+// claim a slot with one CAS on the tail and publish it by advancing its
+// sequence, and only the writer reads. close() seals the tail with
+// CLOSED_BIT by the same CAS, so every request claimed before it is applied
+// and none can be claimed after. When the ring is full offer() fails
+// at once, for callers such as the EDT that must not block, and put() parks
+// until there is room.
+//
+// The writer drains up to MAX_BATCH requests at a time. Anonymous votes on
+// single-choice polls are summed per poll and applied with one
+// PollRegistry.castVotes call, one counts update and one journal record per
+// poll per batch. Votes that need a voter id, ballots and write-ins are
+// applied one at a time, before the summed votes of the same batch. Then
+// the batch's journal records are synced with one shared fsync, whose
+// failure turns the batch's ACCEPTED results into NOT_DURABLE, and its
+// callbacks run as one task on the callback executor, so a busy pipeline
+// posts one event per batch, not one per vote. An idle writer parks until a
+// producer unparks it.
+//
+// With PollMetrics set, one request in SAMPLE_RATE is stamped as it is
+// queued, and its time from then until its batch is applied and synced goes
+// into the vote latency; each poll's summed votes are sampled as one
+// PollEvents.Vote.
+class VotePipeline implements Closeable {
+    static final int DEFAULT_CAPACITY = 1 << 14;
+    static final int MAX_BATCH = 1024;
+    private static final long FULL_PARK_NANOS = 50_000;
+    private static final long CLOSED_BIT = 1L << 62;
+    
+    // One submission: a vote, a ranked ballot or a write-in answer
+    static final class Request {
+        private static final int VOTE = 0;
+        private static final int BALLOT = 1;
+        private static final int WRITE_IN = 2;
+        
+        final int kind;
+        final long pollId;
+        final int option;
+        final int[] ranking;
+        final int weight;
+        final String text;
+        final String voterId;
+        // May be null
+        final Consumer<VoteResult> callback;
+        // System.nanoTime() when queued, for a request sampled by PollMetrics;
+        // 0 otherwise
+        long enqueued;
+        
+        private Request(int kind, long pollId, int option, int[] ranking, int weight, String text, String voterId,
+                Consumer<VoteResult> callback) {
+            this.kind = kind;
+            this.pollId = pollId;
+            this.option = option;
+            this.ranking = ranking;
+            this.weight = weight;
+            this.text = text;
+            this.voterId = voterId;
+            this.callback = callback;
+        }
+        
+        // See PollRegistry.vote
+        static Request vote(long pollId, int option, String voterId, Consumer<VoteResult> callback) {
+            return new Request(VOTE, pollId, option, null, 0, null, voterId, callback);
+        }
+        
+        // See PollRegistry.castBallot
+        static Request ballot(long pollId, int[] ranking, int weight, String voterId, Consumer<VoteResult> callback) {
+            return new Request(BALLOT, pollId, -1, ranking.clone(), weight, null, voterId, callback);
+        }
+        
+        // See PollRegistry.writeIn
+        static Request writeIn(long pollId, String text, String voterId, Consumer<VoteResult> callback) {
+            return new Request(WRITE_IN, pollId, -1, null, 0, text, voterId, callback);
+        }
+    }
+    
+    private final PollRegistry registry;
+    private final Executor callbacks;
+    private final int mask;
+    private final Request[] slots;
+    // Slot i is free for the producer of ticket t when sequences[i] == t and
+    // readable by the writer at ticket t when sequences[i] == t + 1
+    private final AtomicLongArray sequences;
+    // The next ticket, with CLOSED_BIT set once closed
+    private final AtomicLong tail = new AtomicLong();
+    // Only the writer moves the head
+    private long head;
+    private final Thread writer;
+    // The writer's batch: each request's result, or for a summed vote the
+    // index of its poll's group in groupIds, groupDeltas and groupResults
+    private final Request[] batch = new Request[MAX_BATCH];
+    private final VoteResult[] results = new VoteResult[MAX_BATCH];
+    private final int[] groupOf = new int[MAX_BATCH];
+    private final HashMap<Long, Integer> groups = new HashMap<>();
+    private final long[] groupIds = new long[MAX_BATCH];
+    private final long[][] groupDeltas = new long[MAX_BATCH][];
+    private final VoteResult[] groupResults = new VoteResult[MAX_BATCH];
+    private volatile boolean idle;
+    
+    // Callbacks run on callbacks, or on the writer thread if it is null
+    VotePipeline(PollRegistry registry, int capacity, Executor callbacks) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two of at least 2");
+        }
+        this.registry = registry;
+        this.callbacks = callbacks;
+        this.mask = capacity - 1;
+        this.slots = new Request[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.writer = new Thread(this::drain, "vote-pipeline");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    VotePipeline(PollRegistry registry, Executor callbacks) {
+        this(registry, DEFAULT_CAPACITY, callbacks);
+    }
+    
+    // Queues a request unless the ring is full or the pipeline is closed; the
+    // callback only runs for a request that was queued
+    public boolean offer(Request request) {
+        if (isClosed()) {
+            return false;
+        }
+        PollMetrics metrics = registry.getMetrics();
+        if (request.enqueued == 0 && metrics != null && metrics.sample()) {
+            request.enqueued = System.nanoTime();
+        }
+        long ticket = tail.get();
+        while (true) {
+            if ((ticket & CLOSED_BIT) != 0) {
+                return false;
+            }
+            int slot = (int) ticket & mask;
+            long diff = sequences.get(slot) - ticket;
+            if (diff == 0) {
+                if (tail.compareAndSet(ticket, ticket + 1)) {
+                    slots[slot] = request;
+                    sequences.set(slot, ticket + 1);
+                    if (idle) {
+                        LockSupport.unpark(writer);
+                    }
+                    return true;
+                }
+                ticket = tail.get();
+            } else if (diff < 0) {
+                // The writer has not freed this slot from the previous lap
+                return false;
+            } else {
+                ticket = tail.get();
+            }
+        }
+    }
+    
+    // Waits for room in the ring
+    public void put(Request request) throws InterruptedException {
+        while (!offer(request)) {
+            if (isClosed()) {
+                throw new IllegalStateException("Vote pipeline is closed");
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+    
+    // Requests queued and not yet taken by the writer; a moment's estimate
+    public int backlog() {
+        return (int) Math.max(0, (tail.get() & ~CLOSED_BIT) - head);
+    }
+    
+    private boolean isClosed() {
+        return (tail.get() & CLOSED_BIT) != 0;
+    }
+    
+    // Stops taking requests and waits for the writer to apply those queued
+    @Override
+    public void close() {
+        long ticket;
+        do {
+            ticket = tail.get();
+        } while ((ticket & CLOSED_BIT) == 0 && !tail.compareAndSet(ticket, ticket | CLOSED_BIT));
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private Request take() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+        Request request = slots[slot];
+        slots[slot] = null;
+        sequences.set(slot, head + slots.length);
+        head++;
+        return request;
+    }
+    
+    private void drain() {
+        while (true) {
+            int n = 0;
+            Request request;
+            while (n < MAX_BATCH && (request = take()) != null) {
+                batch[n++] = request;
+            }
+            if (n == 0) {
+                long end = tail.get();
+                if ((end & CLOSED_BIT) != 0) {
+                    // Sealed: done once every ticket claimed before that is
+                    // taken; a claimed slot not yet published is moments away
+                    if (head == (end & ~CLOSED_BIT)) {
+                        return;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+                // offer() advances the tail before it reads idle, so either
+                // the tail moved here or the producer unparks; close() too
+                idle = true;
+                if (tail.get() == head) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                continue;
+            }
+            apply(n);
+            timed(n);
+            Arrays.fill(batch, 0, n, null);
+            Arrays.fill(groupDeltas, 0, groups.size(), null);
+        }
+    }
+    
+    private void apply(int n) {
+        groups.clear();
+        for (int i = 0; i < n; i++) {
+            Request request = batch[i];
+            groupOf[i] = -1;
+            try {
+                if (request.kind == Request.VOTE) {
+                    Integer group = groups.get(request.pollId);
+                    if (group != null && request.option >= 0 && request.option < groupDeltas[group].length) {
+                        groupDeltas[group][request.option]++;
+                        groupOf[i] = group;
+                        continue;
+                    }
+                    Poll poll = group == null ? registry.get(request.pollId) : null;
+                    if (poll != null && !poll.isRanked() && !poll.requiresVoterId()
+                            && request.option >= 0 && request.option < poll.getOptions().size()) {
+                        // Summed, and applied after the loop
+                        group = groups.size();
+                        groups.put(request.pollId, group);
+                        groupIds[group] = request.pollId;
+                        groupDeltas[group] = new long[poll.getOptions().size()];
+                        groupDeltas[group][request.option]++;
+                        groupOf[i] = group;
+                    } else {
+                        results[i] = registry.vote(request.pollId, request.option, request.voterId);
+                    }
+                } else if (request.kind == Request.BALLOT) {
+                    results[i] = registry.castBallot(request.pollId, request.ranking, request.weight, request.voterId);
+                } else {
+                    results[i] = registry.writeIn(request.pollId, request.text, request.voterId);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Vote pipeline could not apply a vote: " + e);
+                results[i] = VoteResult.INVALID;
+            }
+        }
+        PollMetrics metrics = registry.getMetrics();
+        for (int group = 0; group < groups.size(); group++) {
+            // Sampled as PollRegistry.vote samples single votes
+            PollEvents.Vote event = metrics != null && metrics.sample() ? new PollEvents.Vote() : null;
+            if (event != null) {
+                event.begin();
+            }
+            try {
+                groupResults[group] = registry.castVotes(groupIds[group], groupDeltas[group]);
+            } catch (RuntimeException e) {
+                System.err.println("Vote pipeline could not apply votes: " + e);
+                groupResults[group] = VoteResult.INVALID;
+            }
+            if (event != null) {
+                long[] deltas = groupDeltas[group];
+                int option = -1;
+                long votes = 0;
+                for (int i = 0; i < deltas.length; i++) {
+                    if (deltas[i] > 0) {
+                        option = votes == 0 ? i : -1;
+                        votes += deltas[i];
+                    }
+                }
+                event.pollId = groupIds[group];
+                event.option = option;
+                event.votes = votes;
+                event.result = groupResults[group].name();
+                event.commit();
+            }
+        }
+        
+        int answered = 0;
+        for (int i = 0; i < n; i++) {
+            if (groupOf[i] >= 0) {
+                results[i] = groupResults[groupOf[i]];
+            }
+            if (batch[i].callback != null) {
+                answered++;
+            }
+        }
+        if (answered == 0) {
+            return;
+        }
+        // One shared fsync for the whole batch before anyone hears back
+        try {
+            registry.awaitDurable();
+        } catch (IOException e) {
+            System.err.println("Vote pipeline could not flush the journal: " + e.getMessage());
+            for (int i = 0; i < n; i++) {
+                if (results[i] == VoteResult.ACCEPTED) {
+                    results[i] = VoteResult.NOT_DURABLE;
+                }
+            }
+        }
+        Consumer<VoteResult>[] targets = newCallbacks(answered);
+        VoteResult[] outcomes = new VoteResult[answered];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (batch[i].callback != null) {
+                targets[j] = batch[i].callback;
+                outcomes[j++] = results[i];
+            }
+        }
+        Runnable deliver = () -> {
+            for (int i = 0; i < targets.length; i++) {
+                try {
+                    targets[i].accept(outcomes[i]);
+                } catch (RuntimeException e) {
+                    System.err.println("Vote callback failed: " + e);
+                }
+            }
+        };
+        if (callbacks == null) {
+            deliver.run();
+        } else {
+            callbacks.execute(deliver);
+        }
+    }
+    
+    // Queue-to-applied latency of the batch's sampled votes, one clock read
+    // for the whole batch
+    private void timed(int n) {
+        PollMetrics metrics = registry.getMetrics();
+        if (metrics == null) {
+            return;
+        }
+        long now = 0;
+        for (int i = 0; i < n; i++) {
+            if (batch[i].enqueued != 0 && batch[i].kind == Request.VOTE) {
+                if (now == 0) {
+                    now = System.nanoTime();
+                }
+                metrics.voteTimed(now - batch[i].enqueued);
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Consumer<VoteResult>[] newCallbacks(int n) {
+        return (Consumer<VoteResult>[]) new Consumer<?>[n];
+    }
+}
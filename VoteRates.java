@@ -0,0 +1,157 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Recent vote counts per option: a ring of the last 60 seconds and a ring of
+// the last 60 minutes. Both rings are allocated once, so recording a vote
+// never allocates. Each slot is stamped with the second (or minute) it
+// counts; the first vote in a new period claims the slot and clears it.
+class VoteRates {
+    static final int SECONDS = 60;
+    static final int MINUTES = 60;
+    
+    private final int options;
+    private final AtomicLongArray secondCounts;
+    private final AtomicLongArray secondStamps;
+    private final AtomicLongArray minuteCounts;
+    private final AtomicLongArray minuteStamps;
+    
+    public VoteRates(int options) {
+        this.options = options;
+        this.secondCounts = new AtomicLongArray(SECONDS * options);
+        this.secondStamps = new AtomicLongArray(SECONDS);
+        this.minuteCounts = new AtomicLongArray(MINUTES * options);
+        this.minuteStamps = new AtomicLongArray(MINUTES);
+        for (int i = 0; i < SECONDS; i++) {
+            secondStamps.set(i, -1);
+        }
+        for (int i = 0; i < MINUTES; i++) {
+            minuteStamps.set(i, -1);
+        }
+    }
+    
+    public int getOptionCount() {
+        return options;
+    }
+    
+    // A copy with room for more options, for a poll that has gained some.
+    // Votes recorded here while the copy is made may be missed by it.
+    public VoteRates widen(int newOptions) {
+        VoteRates wider = new VoteRates(newOptions);
+        copy(secondStamps, secondCounts, wider.secondStamps, wider.secondCounts, newOptions);
+        copy(minuteStamps, minuteCounts, wider.minuteStamps, wider.minuteCounts, newOptions);
+        return wider;
+    }
+    
+    private void copy(AtomicLongArray stamps, AtomicLongArray counts, AtomicLongArray toStamps,
+            AtomicLongArray toCounts, int toOptions) {
+        for (int slot = 0; slot < stamps.length(); slot++) {
+            toStamps.set(slot, stamps.get(slot));
+            for (int i = 0; i < options; i++) {
+                toCounts.set(slot * toOptions + i, counts.get(slot * options + i));
+            }
+        }
+    }
+    
+    // Reading the system clock on every vote costs more than the rest of the
+    // vote, so a daemon thread advances this once per second instead
+    private static volatile long currentSecond = System.currentTimeMillis() / 1000;
+    
+    static {
+        Thread clock = new Thread(() -> {
+            while (true) {
+                long now = System.currentTimeMillis();
+                currentSecond = now / 1000;
+                try {
+                    Thread.sleep(1000 - now % 1000 + 1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "vote-rates-clock");
+        clock.setDaemon(true);
+        clock.start();
+    }
+    
+    static long currentSecond() {
+        return currentSecond;
+    }
+    
+    // Returns true if this was the first vote of a new second
+    public boolean record(int optionIndex, long second) {
+        return record(optionIndex, second, 1);
+    }
+    
+    // count votes for one option at once
+    public boolean record(int optionIndex, long second, long count) {
+        boolean newSecond = claim(secondStamps, secondCounts, (int) (second % SECONDS), second);
+        secondCounts.getAndAdd((int) (second % SECONDS) * options + optionIndex, count);
+        long minute = second / 60;
+        claim(minuteStamps, minuteCounts, (int) (minute % MINUTES), minute);
+        minuteCounts.getAndAdd((int) (minute % MINUTES) * options + optionIndex, count);
+        return newSecond;
+    }
+    
+    // Votes for all options in the last `seconds` seconds, including the current one
+    public long votesInLastSeconds(int seconds, long now) {
+        return sum(secondStamps, secondCounts, Math.min(seconds, SECONDS), now, -1);
+    }
+    
+    public long votesInLastSeconds(int seconds, long now, int optionIndex) {
+        return sum(secondStamps, secondCounts, Math.min(seconds, SECONDS), now, optionIndex);
+    }
+    
+    public long votesInLastMinutes(int minutes, long now) {
+        return sum(minuteStamps, minuteCounts, Math.min(minutes, MINUTES), now / 60, -1);
+    }
+    
+    public long votesInLastMinutes(int minutes, long now, int optionIndex) {
+        return sum(minuteStamps, minuteCounts, Math.min(minutes, MINUTES), now / 60, optionIndex);
+    }
+    
+    public long memoryBytes() {
+        return 4 * 16 + 8L * (secondCounts.length() + secondStamps.length()
+            + minuteCounts.length() + minuteStamps.length());
+    }
+    
+    // Second of the most recent vote, or -1 if none has been recorded
+    public long lastActiveSecond() {
+        long latest = -1;
+        for (int i = 0; i < SECONDS; i++) {
+            latest = Math.max(latest, secondStamps.get(i));
+        }
+        return latest;
+    }
+    
+    private boolean claim(AtomicLongArray stamps, AtomicLongArray counts, int slot, long period) {
+        long stamp = stamps.get(slot);
+        if (stamp == period || stamp > period || !stamps.compareAndSet(slot, stamp, period)) {
+            return false;
+        }
+        // A vote racing with this reset may be dropped; rates are approximate
+        for (int i = 0; i < options; i++) {
+            counts.set(slot * options + i, 0);
+        }
+        return true;
+    }
+    
+    private long sum(AtomicLongArray stamps, AtomicLongArray counts, int periods, long now, int optionIndex) {
+        long total = 0;
+        for (int back = 0; back < periods; back++) {
+            long period = now - back;
+            if (period < 0) {
+                break;
+            }
+            int slot = (int) (period % stamps.length());
+            if (stamps.get(slot) != period) {
+                continue;
+            }
+            if (optionIndex >= 0) {
+                total += counts.get(slot * options + optionIndex);
+            } else {
+                for (int i = 0; i < options; i++) {
+                    total += counts.get(slot * options + i);
+                }
+            }
+        }
+        return total;
+    }
+}
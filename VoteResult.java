@@ -0,0 +1,10 @@
+// Outcome of a single vote submission
+enum VoteResult {
+    ACCEPTED,
+    // Unknown poll, option out of range, or a missing or malformed voter id
+    INVALID,
+    // The voter already voted on a one-vote-per-voter poll
+    DUPLICATE,
+    // Counted, but the journal could not be synced, so a crash may lose it
+    NOT_DURABLE
+}
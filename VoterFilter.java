@@ -0,0 +1,53 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Remembers which voters have voted on a poll, for one-vote-per-voter polls.
+// Voter ids are first turned into a 64-bit key; tryRecord must be lock-free
+// and safe to call from any number of threads.
+interface VoterFilter {
+    // Throws IllegalArgumentException if the id is not acceptable
+    long keyOf(String voterId);
+    
+    // True if this is the first vote for the key, false for a repeat
+    boolean tryRecord(long key);
+    
+    long memoryBytes();
+    
+    // Configuration only, e.g. "dense:max=1000000"; see fromSpec
+    String spec();
+    
+    // Writes the recorded voters; the spec is written separately
+    void writeState(DataOutput out) throws IOException;
+    
+    void readState(DataInput in) throws IOException;
+    
+    // "dense:max=N" for numeric ids in [0, N], or
+    // "bloom:n=EXPECTED,p=FALSE_POSITIVE_RATE" for arbitrary ids
+    static VoterFilter fromSpec(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        long max = DenseVoterBitmap.DEFAULT_MAX_ID;
+        long expected = BloomVoterFilter.DEFAULT_EXPECTED_VOTERS;
+        double rate = BloomVoterFilter.DEFAULT_FALSE_POSITIVE_RATE;
+        if (colon >= 0) {
+            for (String param : spec.substring(colon + 1).split(",")) {
+                String[] pair = param.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Bad voter filter parameter: " + param);
+                }
+                switch (pair[0].trim()) {
+                    case "max": max = Long.parseLong(pair[1].trim()); break;
+                    case "n": expected = Long.parseLong(pair[1].trim()); break;
+                    case "p": rate = Double.parseDouble(pair[1].trim()); break;
+                    default: throw new IllegalArgumentException("Unknown voter filter parameter: " + pair[0]);
+                }
+            }
+        }
+        switch (kind.trim()) {
+            case "dense": return new DenseVoterBitmap(max);
+            case "bloom": return new BloomVoterFilter(expected, rate);
+            default: throw new IllegalArgumentException("Unknown voter filter: " + kind);
+        }
+    }
+}
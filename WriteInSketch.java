@@ -0,0 +1,308 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+// Approximate counts of a poll's free-text write-in answers in a fixed
+// amount of memory, however many distinct answers arrive.
+//
+// A Space-Saving table of k counters keeps the answers most likely to be
+// the most popular: an answer not in the table replaces the one with the
+// lowest counter. Beside it a Count-Min sketch (depth rows of width
+// counters, conservative update) gives an upper bound for any answer, and a
+// newcomer's counter starts from that bound, the rest of it being its
+// possible error. For an answer in the table the true count lies between
+// its counter minus its error and the smaller of its counter and the sketch
+// estimate, and no answer outside the table can have more than the largest
+// upper bound of any answer evicted.
+//
+// Answers are compared after trimming, collapsing whitespace and ignoring
+// case, and are cut to MAX_TEXT_LENGTH characters. Updates are serialized
+// per poll; write-ins are expected to be much rarer than plain votes.
+class WriteInSketch {
+    static final int MAX_TEXT_LENGTH = 100;
+    static final int DEFAULT_COUNTERS = 64;
+    static final int DEFAULT_WIDTH = 1024;
+    static final int DEFAULT_DEPTH = 4;
+    private static final int MAX_COUNTERS = 4096;
+    private static final int MAX_CELLS = 1 << 20;
+    
+    // One answer of the top-K
+    static final class Entry {
+        final String text;
+        // Best estimate: never below the true count
+        final long upper;
+        // Never above the true count
+        final long lower;
+        
+        Entry(String text, long upper, long lower) {
+            this.text = text;
+            this.upper = upper;
+            this.lower = lower;
+        }
+    }
+    
+    private final int counters;
+    private final int width;
+    private final int depth;
+    private final long[] sketch;
+    // Space-Saving table; slots [0, used) are taken
+    private final String[] keys;
+    private final String[] texts;
+    private final long[] counts;
+    private final long[] errors;
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private int used;
+    private long total;
+    // Set by the first eviction; until then every answer is in the table
+    private boolean evicted;
+    // The largest upper bound of an evicted answer. An answer outside the
+    // table gains no votes without coming back in, so none has more.
+    private long maxEvicted;
+    
+    WriteInSketch(int counters, int width, int depth) {
+        if (counters < 1 || counters > MAX_COUNTERS) {
+            throw new IllegalArgumentException("Write-in counters must be between 1 and " + MAX_COUNTERS);
+        }
+        if (width < 1 || depth < 1 || (long) width * depth > MAX_CELLS) {
+            throw new IllegalArgumentException("Write-in sketch must have between 1 and " + MAX_CELLS + " cells");
+        }
+        this.counters = counters;
+        this.width = width;
+        this.depth = depth;
+        this.sketch = new long[width * depth];
+        this.keys = new String[counters];
+        this.texts = new String[counters];
+        this.counts = new long[counters];
+        this.errors = new long[counters];
+    }
+    
+    // "writein" optionally followed by ":k=COUNTERS,width=W,depth=D"
+    static WriteInSketch fromSpec(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        int counters = DEFAULT_COUNTERS;
+        int width = DEFAULT_WIDTH;
+        int depth = DEFAULT_DEPTH;
+        if (colon >= 0) {
+            for (String param : spec.substring(colon + 1).split(",")) {
+                String[] pair = param.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Bad write-in parameter: " + param);
+                }
+                switch (pair[0].trim()) {
+                    case "k": counters = Integer.parseInt(pair[1].trim()); break;
+                    case "width": width = Integer.parseInt(pair[1].trim()); break;
+                    case "depth": depth = Integer.parseInt(pair[1].trim()); break;
+                    default: throw new IllegalArgumentException("Unknown write-in parameter: " + pair[0]);
+                }
+            }
+        }
+        if (!kind.trim().equals("writein")) {
+            throw new IllegalArgumentException("Unknown write-in type: " + kind);
+        }
+        return new WriteInSketch(counters, width, depth);
+    }
+    
+    String spec() {
+        return "writein:k=" + counters + ",width=" + width + ",depth=" + depth;
+    }
+    
+    // Trimmed, with runs of whitespace made single spaces and cut to
+    // MAX_TEXT_LENGTH; empty if nothing is left
+    static String clean(String text) {
+        String collapsed = text == null ? "" : text.trim().replaceAll("\\s+", " ");
+        return collapsed.length() <= MAX_TEXT_LENGTH ? collapsed : collapsed.substring(0, MAX_TEXT_LENGTH).trim();
+    }
+    
+    // What answers are compared by; see clean
+    static String key(String text) {
+        return clean(text).toLowerCase(Locale.ROOT);
+    }
+    
+    // Counts more votes for an answer, which must already be clean
+    public synchronized void add(String text, long count) {
+        String key = text.toLowerCase(Locale.ROOT);
+        total += count;
+        long estimate = raise(key, count);
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += count;
+            return;
+        }
+        if (used < counters) {
+            // Free from the start, or since take()
+            slot = used++;
+        } else {
+            slot = minSlot();
+            maxEvicted = Math.max(maxEvicted, entry(slot).upper);
+            slots.remove(keys[slot]);
+            evicted = true;
+        }
+        // Once anything has been evicted, the newcomer may have been counted
+        // before, up to what the sketch says. The evicted counter is no
+        // bound: counters start from the sketch and take() frees slots, so
+        // an untracked answer can have more votes than the smallest one.
+        errors[slot] = evicted ? estimate - count : 0;
+        counts[slot] = errors[slot] + count;
+        keys[slot] = key;
+        texts[slot] = text;
+        slots.put(key, slot);
+    }
+    
+    // Stops tracking an answer, once it is promoted to an option, and returns
+    // its last entry or null. Its votes stay in total() and in the sketch,
+    // so the bounds of other answers stay safe.
+    public synchronized Entry take(String text) {
+        Integer slot = slots.remove(key(text));
+        if (slot == null) {
+            return null;
+        }
+        Entry taken = entry(slot);
+        int last = --used;
+        if (slot != last) {
+            keys[slot] = keys[last];
+            texts[slot] = texts[last];
+            counts[slot] = counts[last];
+            errors[slot] = errors[last];
+            slots.put(keys[slot], slot);
+        }
+        keys[last] = null;
+        texts[last] = null;
+        return taken;
+    }
+    
+    // The tracked answer, or null if it is not in the table
+    public synchronized Entry get(String text) {
+        Integer slot = slots.get(key(text));
+        return slot == null ? null : entry(slot);
+    }
+    
+    // Up to n tracked answers, most votes first
+    public synchronized List<Entry> top(int n) {
+        List<Entry> entries = new ArrayList<>(used);
+        for (int i = 0; i < used; i++) {
+            entries.add(entry(i));
+        }
+        entries.sort((a, b) -> Long.compare(b.upper, a.upper));
+        return entries.size() > n ? new ArrayList<>(entries.subList(0, n)) : entries;
+    }
+    
+    // All write-in votes counted so far
+    public synchronized long total() {
+        return total;
+    }
+    
+    // The most an answer outside the table can have
+    public synchronized long maxUntracked() {
+        return maxEvicted;
+    }
+    
+    // Fixed at construction: the sketch, the table and MAX_TEXT_LENGTH
+    // characters for each tracked key and text
+    public long memoryBytes() {
+        return 96 + 16 + 8L * sketch.length + 4 * (16 + 8L * counters)
+            + counters * (2 * (40 + 2L * MAX_TEXT_LENGTH) + 48);
+    }
+    
+    private Entry entry(int slot) {
+        long upper = Math.min(counts[slot], estimate(keys[slot]));
+        return new Entry(texts[slot], upper, counts[slot] - errors[slot]);
+    }
+    
+    private int minSlot() {
+        int min = 0;
+        for (int i = 1; i < used; i++) {
+            if (counts[i] < counts[min]) {
+                min = i;
+            }
+        }
+        return min;
+    }
+    
+    // Conservative update: only rows at the current minimum are raised, so
+    // the estimate never falls below the true count but grows more slowly.
+    // Returns the new estimate.
+    private long raise(String key, long count) {
+        long hash = hash(key);
+        long target = estimate(hash) + count;
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(hash, row);
+            if (sketch[cell] < target) {
+                sketch[cell] = target;
+            }
+        }
+        return target;
+    }
+    
+    private long estimate(String key) {
+        return estimate(hash(key));
+    }
+    
+    private long estimate(long hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, sketch[cell(hash, row)]);
+        }
+        return min;
+    }
+    
+    // Row hashes are h1 + row * h2, from the two halves of one 64-bit hash
+    private int cell(long hash, int row) {
+        int h = (int) hash + row * (int) (hash >>> 32);
+        return row * width + Math.floorMod(h, width);
+    }
+    
+    // FNV-1a over the chars, then a murmur finalizer to spread the bits
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    // Writes the counts and table; the spec is written separately
+    public synchronized void writeState(DataOutput out) throws IOException {
+        out.writeLong(total);
+        out.writeBoolean(evicted);
+        out.writeLong(maxEvicted);
+        for (long cell : sketch) {
+            out.writeLong(cell);
+        }
+        out.writeInt(used);
+        for (int i = 0; i < used; i++) {
+            out.writeUTF(texts[i]);
+            out.writeLong(counts[i]);
+            out.writeLong(errors[i]);
+        }
+    }
+    
+    // Only for an empty sketch of the same spec
+    public synchronized void readState(DataInput in) throws IOException {
+        total = in.readLong();
+        evicted = in.readBoolean();
+        maxEvicted = in.readLong();
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] = in.readLong();
+        }
+        int n = in.readInt();
+        if (n < 0 || n > counters) {
+            throw new IOException("Corrupt write-in table");
+        }
+        slots.clear();
+        used = n;
+        for (int i = 0; i < n; i++) {
+            texts[i] = in.readUTF();
+            keys[i] = texts[i].toLowerCase(Locale.ROOT);
+            counts[i] = in.readLong();
+            errors[i] = in.readLong();
+            slots.put(keys[i], i);
+        }
+    }
+}